@@ -4,184 +4,441 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
-class MySet<T> {
-    private final MyHashSet<T> items;
-    public MySet() {items = new MyHashSet<>();
+// Gives every distinct string id a dense int, 0 for the first one, 1 for the next and so on
+// so users and posts can live in arrays and every set below holds ints instead of strings
+class MyIdTable {
+    private static final int INITIAL_CAPACITY = 128; // A power of two, so the index is a mask of the hash
+    private int[] slots; // id + 1 of the string in each slot, 0 for an empty slot
+    private final ArrayList<String> names; // The string of each id
+    public MyIdTable() {slots = new int[INITIAL_CAPACITY];names = new ArrayList<>();
+    }
+    private static int mix(int hash) {return hash ^ (hash >>> 16); // Mix the high bits into the low ones
+    }
+    // Returns the id of the string, or -1 if it has never been interned
+    public int find(String name) {
+        int mask = slots.length - 1;
+        int index = mix(name.hashCode()) & mask;
+        while (slots[index] != 0) {
+            if (names.get(slots[index] - 1).equals(name)) {
+                return slots[index] - 1;
+            }
+            index = (index + 1) & mask; // Linear probing
+        }
+        return -1;
     }
-    public boolean add(T item) {return items.add(item); // Add to the set, returns false if the item already exists
+    // Returns the id of the string, giving it the next free id if it does not have one yet
+    public int intern(String name) {
+        int id = find(name);
+        if (id >= 0) {
+            return id;
+        }
+        if (names.size() * 2 >= slots.length) {resize();
+        }
+        id = names.size();
+        names.add(name);
+        place(id);
+        return id;
     }
-    public boolean remove(T item) {return items.remove(item); // Remove from the set, returns true if the item was present
+    public String name(int id) {return names.get(id);
     }
-    public boolean contains(T item) {return items.contains(item); // Check if the set contains the item
+    public int size() {return names.size();
     }
-    public int size() {return items.size(); // Return the number of elements in the set
+    private void place(int id) {
+        int mask = slots.length - 1;
+        int index = mix(names.get(id).hashCode()) & mask;
+        while (slots[index] != 0) {
+            index = (index + 1) & mask;
+        }
+        slots[index] = id + 1;
     }
-    public ArrayList<T> getItems() {
-        return new ArrayList<>(items.getAllItems()); // Return all items as a list
+    private void resize() {
+        slots = new int[slots.length * 2];
+        for (int id = 0; id < names.size(); id++) {
+            place(id);
+        }
     }
 }
-class MyHashSet<T> {
-    private static final int INITIAL_CAPACITY = 128;
-    private static final double LOAD_FACTOR = 0.5;
-    private Object[] table;
+// A hash set of non-negative ints, open addressing with linear probing in one int array
+class MyIntSet {
+    private static final int INITIAL_CAPACITY = 8; // Most sets stay small, a power of two
+    private static final int EMPTY = -1;
+    private int[] table;
     private int size;
-    public MyHashSet() {table = new Object[INITIAL_CAPACITY];size = 0;
+    public MyIntSet() {
+        table = new int[INITIAL_CAPACITY];
+        Arrays.fill(table, EMPTY);
     }
-    private int hash(T item) {return Math.abs(item.hashCode() % table.length);
+    private int indexOf(int item) {
+        int hash = item * 0x9E3779B9; // Spread consecutive ids over the table
+        return (hash ^ (hash >>> 16)) & (table.length - 1);
     }
-    public boolean add(T item) {
-        if (size >= LOAD_FACTOR * table.length) {resize();
+    public boolean add(int item) {
+        if (size * 2 >= table.length) {resize();
         }
-        int index = hash(item);
-        while (table[index] != null) {
-            if (table[index].equals(item)) {
+        int mask = table.length - 1;
+        int index = indexOf(item);
+        while (table[index] != EMPTY) {
+            if (table[index] == item) {
                 return false; // Item already exists
             }
-            index = (index + 1) % table.length; // Linear probing
+            index = (index + 1) & mask;
         }
         table[index] = item;
         size++;
         return true;
     }
-    public boolean remove(T item) {
-        int index = hash(item);
-        while (table[index] != null) {
-            if (table[index].equals(item)) {
-                table[index] = null; // Remove the item
+    public boolean remove(int item) {
+        int mask = table.length - 1;
+        int index = indexOf(item);
+        while (table[index] != EMPTY) {
+            if (table[index] == item) {
+                // Shift later items of the probe run back so no lookup stops early at the hole
+                int hole = index;
+                int next = (hole + 1) & mask;
+                while (table[next] != EMPTY) {
+                    int home = indexOf(table[next]);
+                    if (((next - home) & mask) >= ((next - hole) & mask)) {
+                        table[hole] = table[next];
+                        hole = next;
+                    }
+                    next = (next + 1) & mask;
+                }
+                table[hole] = EMPTY;
                 size--;
-                rehash(index);
                 return true;
             }
-            index = (index + 1) % table.length;
+            index = (index + 1) & mask;
         }
         return false; // Item not found
     }
-    public boolean contains(T item) {
-        int index = hash(item);
-        while (table[index] != null) {
-            if (table[index].equals(item)) {
-                return true; // Item found
+    public boolean contains(int item) {
+        int mask = table.length - 1;
+        int index = indexOf(item);
+        while (table[index] != EMPTY) {
+            if (table[index] == item) {
+                return true;
             }
-            index = (index + 1) % table.length;
+            index = (index + 1) & mask;
         }
-        return false; // Item not found
+        return false;
     }
     public int size() {return size;
     }
-    public ArrayList<T> getAllItems() {
-        ArrayList<T> items = new ArrayList<>();
-        for (Object obj : table) {
-            if (obj != null) {
-                items.add((T) obj);
+    public int[] toArray() {
+        int[] items = new int[size];
+        int count = 0;
+        for (int item : table) {
+            if (item != EMPTY) {
+                items[count++] = item;
             }
         }
         return items;
     }
     private void resize() {
-        Object[] oldTable = table;
-        table = new Object[oldTable.length * 3];
+        int[] oldTable = table;
+        table = new int[oldTable.length * 2];
+        Arrays.fill(table, EMPTY);
         size = 0;
-        for (Object obj : oldTable) {
-            if (obj != null) {
-                add((T) obj);
+        for (int item : oldTable) {
+            if (item != EMPTY) {
+                add(item);
             }
         }
     }
-    private void rehash(int start) {
-        int index = (start + 1) % table.length;
-        while (table[index] != null) {
-            T item = (T) table[index];
-            table[index] = null;
-            size--;
-            add(item);
-            index = (index + 1) % table.length;
+}
+// A hash map from non-negative ints to values, the keys are kept like in MyIntSet with the values in a parallel array
+class MyIntMap<V> implements Iterable<V> {
+    private static final int INITIAL_CAPACITY = 8; // A power of two
+    private static final int EMPTY = -1;
+    private int[] keys;
+    private Object[] values;
+    private int size;
+    public MyIntMap() {
+        keys = new int[INITIAL_CAPACITY];
+        values = new Object[INITIAL_CAPACITY];
+        Arrays.fill(keys, EMPTY);
+    }
+    private int indexOf(int key) {
+        int hash = key * 0x9E3779B9; // Spread consecutive ids over the table
+        return (hash ^ (hash >>> 16)) & (keys.length - 1);
+    }
+    // Slot of the key, or the empty slot where it would go
+    private int slotOf(int key) {
+        int mask = keys.length - 1;
+        int index = indexOf(key);
+        while (keys[index] != EMPTY && keys[index] != key) {
+            index = (index + 1) & mask;
         }
+        return index;
     }
-}
-class MyHashMap<K, V> {
-    private static final int INITIAL_CAPACITY = 128; // Initial size of the hash table
-    private static final double LOAD_FACTOR = 0.50; // Maximum load factor before resizing
-    private int size; // Number of key-value pairs in the map
-    private Entry<K, V>[] table; // Hash table array
-    private static class Entry<K, V> {
-        K key;
-        V value;
-        boolean isDeleted; // Marks if an entry has been logically deleted
-        Entry(K key, V value) {
-            this.key = key;
-            this.value = value;
-            this.isDeleted = false;
-        }
-    }
-    public MyHashMap() {
-        table = new Entry[INITIAL_CAPACITY];
-        size = 0;
+    @SuppressWarnings("unchecked") // Only values of type V are ever stored
+    public V get(int key) {// The value of the key, or null if it is not in the map
+        return (V) values[slotOf(key)];
     }
-
-    private int primaryHash(K key) {
-        int hash = key.hashCode();
-        return Math.abs((hash ^ (hash >>> 16)) % table.length); // Mix bits to reduce collisions
-    }
-    private int probeIndex(K key, int i) {
-        return Math.abs((primaryHash(key) + i * secondaryHash(key)) % table.length);
-    }
-    private int secondaryHash(K key) {
-        return 7 - Math.abs(key.hashCode() % 7);
-    }
-    public void put(K key, V value) {
-        if (size >= LOAD_FACTOR * table.length) {
-            resize();
-        }
-        int i = 0;
-        int index;
-        while (true) {
-            index = probeIndex(key, i);
-            Entry<K, V> entry = table[index];
-            // Insert if the slot is empty or logically deleted
-            if (entry == null || entry.isDeleted) {
-                table[index] = new Entry<>(key, value);
-                size++;
-                return;
+    public boolean containsKey(int key) {return keys[slotOf(key)] != EMPTY;
+    }
+    public boolean put(int key, V value) {// False if the key was already there, its value is replaced then
+        if (size * 2 >= keys.length) {resize();
+        }
+        int index = slotOf(key);
+        values[index] = value;
+        if (keys[index] == key) {
+            return false;
+        }
+        keys[index] = key;
+        size++;
+        return true;
+    }
+    public boolean remove(int key) {
+        int mask = keys.length - 1;
+        int hole = slotOf(key);
+        if (keys[hole] == EMPTY) {
+            return false; // Key not found
+        }
+        // Shift later keys of the probe run back so no lookup stops early at the hole, as in MyIntSet
+        int next = (hole + 1) & mask;
+        while (keys[next] != EMPTY) {
+            int home = indexOf(keys[next]);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
             }
-            // Update value if key already exists
-            if (entry.key.equals(key)) {
-                table[index].value = value;
-                return;
+            next = (next + 1) & mask;
+        }
+        keys[hole] = EMPTY;
+        values[hole] = null;
+        size--;
+        return true;
+    }
+    public int size() {return size;
+    }
+    @Override
+    public Iterator<V> iterator() {// Walks the values in no particular order, the map must not change meanwhile
+        return new Iterator<V>() {
+            private int index = skipEmpty(0);
+            @Override
+            public boolean hasNext() {return index < keys.length;
+            }
+            @Override
+            @SuppressWarnings("unchecked") // Only values of type V are ever stored
+            public V next() {
+                if (index >= keys.length) throw new NoSuchElementException();
+                V value = (V) values[index];
+                index = skipEmpty(index + 1);
+                return value;
+            }
+        };
+    }
+    private int skipEmpty(int index) {
+        while (index < keys.length && keys[index] == EMPTY) index++;
+        return index;
+    }
+    private void resize() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new Object[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int index = slotOf(oldKeys[i]);
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
             }
-            i++;
         }
     }
-    public V get(K key) {
-        int i = 0;
-        int index;
-        while (i < table.length) {
-            index = probeIndex(key, i);
-            Entry<K, V> entry = table[index];
-            if (entry == null) {
-                return null; // Key not found
+}
+// A compressed set of non-negative ints in the style of a Roaring bitmap: the ints are split by their high 16 bits
+// into chunks, a chunk with few ints keeps them as a sorted array and a full one as a bitmap of all 65536 values
+class MyBitmap {
+    private static final int MAX_ARRAY_SIZE = 4096; // Above this an array takes more room than the 8 KB bitmap
+    private static final int BITMAP_WORDS = 1 << 10; // 65536 bits
+    // The ints of one chunk, either in values (sorted) or in bits
+    private static class Container {
+        char[] values;
+        long[] bits;
+        int cardinality;
+        Container() {values = new char[4];
+        }
+        Container(Container other) {
+            values = other.values == null ? null : Arrays.copyOf(other.values, other.values.length);
+            bits = other.bits == null ? null : Arrays.copyOf(other.bits, BITMAP_WORDS);
+            cardinality = other.cardinality;
+        }
+        boolean contains(char low) {
+            if (bits != null) return (bits[low >>> 6] & (1L << low)) != 0;
+            return Arrays.binarySearch(values, 0, cardinality, low) >= 0;
+        }
+        boolean add(char low) {
+            if (bits != null) {
+                long before = bits[low >>> 6];
+                bits[low >>> 6] = before | (1L << low);
+                if (before == bits[low >>> 6]) return false;
+                cardinality++;
+                return true;
+            }
+            int index = Arrays.binarySearch(values, 0, cardinality, low);
+            if (index >= 0) return false;
+            if (cardinality == MAX_ARRAY_SIZE) {
+                toBitmap();
+                return add(low);
+            }
+            index = -index - 1;
+            if (cardinality == values.length) {values = Arrays.copyOf(values, Math.min(cardinality * 2, MAX_ARRAY_SIZE));
+            }
+            System.arraycopy(values, index, values, index + 1, cardinality - index);
+            values[index] = low;
+            cardinality++;
+            return true;
+        }
+        boolean remove(char low) {
+            if (bits != null) {
+                long before = bits[low >>> 6];
+                bits[low >>> 6] = before & ~(1L << low);
+                if (before == bits[low >>> 6]) return false;
+                cardinality--;
+                if (cardinality <= MAX_ARRAY_SIZE) toArray();
+                return true;
+            }
+            int index = Arrays.binarySearch(values, 0, cardinality, low);
+            if (index < 0) return false;
+            System.arraycopy(values, index + 1, values, index, cardinality - index - 1);
+            cardinality--;
+            return true;
+        }
+        // Add every int of the other chunk
+        void or(Container other) {
+            if (other.bits != null || bits != null) {
+                if (bits == null) toBitmap();
+                if (other.bits != null) {
+                    int count = 0;
+                    for (int i = 0; i < BITMAP_WORDS; i++) {
+                        bits[i] |= other.bits[i];
+                        count += Long.bitCount(bits[i]);
+                    }
+                    cardinality = count;
+                } else {
+                    for (int i = 0; i < other.cardinality; i++) {
+                        char low = other.values[i];
+                        long before = bits[low >>> 6];
+                        bits[low >>> 6] = before | (1L << low);
+                        if (before != bits[low >>> 6]) cardinality++;
+                    }
+                }
+                return;
             }
-            if (!entry.isDeleted && entry.key.equals(key)) {
-                return entry.value; // Return value if key matches
+            // Merge two sorted arrays in place from the back: each of the other values finds its spot by binary search
+            // and the values above it move up in one block, so every value moves at most once
+            int total = cardinality + other.cardinality;
+            if (values.length < total) {values = Arrays.copyOf(values, Math.max(total, values.length * 2));
+            }
+            int unplaced = cardinality; // values[0, unplaced) have not moved yet
+            int end = total; // values[end, total) are merged
+            for (int j = other.cardinality - 1; j >= 0; j--) {
+                char value = other.values[j];
+                int index = Arrays.binarySearch(values, 0, unplaced, value);
+                int from = index >= 0 ? index : -index - 1;
+                int moved = unplaced - from;
+                System.arraycopy(values, from, values, end - moved, moved);
+                end -= moved;
+                unplaced = from;
+                if (index < 0) values[--end] = value; // Already there otherwise, it moved with the block
+            }
+            System.arraycopy(values, end, values, unplaced, total - end); // Close the gap left by duplicates
+            cardinality = unplaced + total - end;
+            if (cardinality > MAX_ARRAY_SIZE) toBitmap();
+        }
+        private void toBitmap() {
+            bits = new long[BITMAP_WORDS];
+            for (int i = 0; i < cardinality; i++) {
+                bits[values[i] >>> 6] |= 1L << values[i];
+            }
+            values = null;
+        }
+        private void toArray() {
+            values = new char[cardinality];
+            int count = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                long word = bits[i];
+                while (word != 0) {
+                    values[count++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1; // Clear the lowest set bit
+                }
             }
-            i++;
+            bits = null;
         }
-        return null; // Key not found after probing
     }
-    public boolean containsKey(K key) {return get(key) != null;
+    private char[] keys = new char[0]; // High 16 bits of each chunk, sorted
+    private Container[] containers = new Container[0];
+    private int chunks; // Number of chunks in use
+    private int size;
+    private int find(char key) {return Arrays.binarySearch(keys, 0, chunks, key);
+    }
+    public boolean contains(int item) {
+        int index = find((char) (item >>> 16));
+        return index >= 0 && containers[index].contains((char) item);
+    }
+    public boolean add(int item) {
+        char key = (char) (item >>> 16);
+        int index = find(key);
+        if (index < 0) {
+            index = -index - 1;
+            insertChunk(index, key, new Container());
+        }
+        if (!containers[index].add((char) item)) return false;
+        size++;
+        return true;
     }
-    private void resize() {
-        Entry<K, V>[] oldTable = table;
-        table = new Entry[oldTable.length * 3];
-        size = 0;
-
-        for (Entry<K, V> entry : oldTable) {
-            if (entry != null && !entry.isDeleted) {
-                put(entry.key, entry.value); // Rehash and insert into new table
+    public boolean remove(int item) {
+        int index = find((char) (item >>> 16));
+        if (index < 0 || !containers[index].remove((char) item)) return false;
+        size--;
+        if (containers[index].cardinality == 0) {// Drop the empty chunk
+            System.arraycopy(keys, index + 1, keys, index, chunks - index - 1);
+            System.arraycopy(containers, index + 1, containers, index, chunks - index - 1);
+            chunks--;
+            containers[chunks] = null;
+        }
+        return true;
+    }
+    // Add every int of the other bitmap, chunk by chunk
+    public void or(MyBitmap other) {
+        if (other == this) return;
+        for (int j = 0; j < other.chunks; j++) {
+            char key = other.keys[j];
+            int index = find(key);
+            Container theirs = other.containers[j];
+            if (index < 0) {
+                insertChunk(-index - 1, key, new Container(theirs));
+                size += theirs.cardinality;
+            } else {
+                Container mine = containers[index];
+                size -= mine.cardinality;
+                mine.or(theirs);
+                size += mine.cardinality;
             }
         }
     }
+    public int size() {return size;
+    }
+    private void insertChunk(int index, char key, Container container) {
+        if (chunks == keys.length) {
+            int capacity = Math.max(1, chunks * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            containers = Arrays.copyOf(containers, capacity);
+        }
+        System.arraycopy(keys, index, keys, index + 1, chunks - index);
+        System.arraycopy(containers, index, containers, index + 1, chunks - index);
+        keys[index] = key;
+        containers[index] = container;
+        chunks++;
+    }
 }
 class MyPriorityQueue<T> {
     private ArrayList<T> heap;
@@ -190,6 +447,14 @@ class MyPriorityQueue<T> {
         heap = new ArrayList<>();
         this.comparator = comparator;
     }
+    // Build the heap from a list of items at once, sifting down from the last parent is O(n)
+    public MyPriorityQueue(ArrayList<T> items, Comparator<T> comparator) {
+        heap = items;
+        this.comparator = comparator;
+        for (int i = heap.size() / 2 - 1; i >= 0; i--) {
+            heapBalance(i);
+        }
+    }
 
     public void add(T item) {
         heap.add(item);
@@ -236,11 +501,155 @@ class MyPriorityQueue<T> {
         heap.set(j, temp);
     }
 
+    public T peek() {
+        return heap.isEmpty() ? null : heap.get(0);
+    }
+    // Replace the top item and restore the heap, cheaper than a poll followed by an add
+    public void replaceTop(T item) {
+        heap.set(0, item);
+        heapBalance(0);
+    }
+    public int size() {
+        return heap.size();
+    }
+
     public boolean isEmpty() {
         return heap.isEmpty();
     }
 }
+// A sorted set kept as an AVL tree, ordered by the comparator it is given
+// The comparator must not change its answer for an element while the element is in the set,
+// so an element whose order depends on mutable fields is removed before they change and added back after
+class MySortedSet<T> implements Iterable<T> {
+    private static class Node<T> {
+        T item;
+        Node<T> left, right;
+        int height;
+        Node(T item) {
+            this.item = item;
+            this.height = 1;
+        }
+    }
+    private final Comparator<T> comparator;
+    private Node<T> root;
+    private int size;
+    private boolean changed; // Set by the recursive add and remove when they found something to do
+    public MySortedSet(Comparator<T> comparator) {this.comparator = comparator;
+    }
+    public boolean add(T item) {
+        changed = false;
+        root = add(root, item);
+        if (changed) size++;
+        return changed; // False if an equal item is already in the set
+    }
+    public boolean remove(T item) {
+        changed = false;
+        root = remove(root, item);
+        if (changed) size--;
+        return changed; // False if no equal item was in the set
+    }
+    public boolean contains(T item) {
+        Node<T> node = root;
+        while (node != null) {
+            int cmp = comparator.compare(item, node.item);
+            if (cmp == 0) return true;
+            node = cmp < 0 ? node.left : node.right;
+        }
+        return false;
+    }
+    public int size() {return size;
+    }
+    public boolean isEmpty() {return size == 0;
+    }
+    public T first() {// The smallest item, or null if the set is empty
+        Node<T> node = root;
+        if (node == null) return null;
+        while (node.left != null) node = node.left;
+        return node.item;
+    }
+    @Override
+    public Iterator<T> iterator() {// Walks the items in order, the set must not change meanwhile
+        ArrayList<Node<T>> stack = new ArrayList<>();
+        for (Node<T> node = root; node != null; node = node.left) stack.add(node);
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {return !stack.isEmpty();
+            }
+            @Override
+            public T next() {
+                if (stack.isEmpty()) throw new NoSuchElementException();
+                Node<T> node = stack.remove(stack.size() - 1);
+                for (Node<T> child = node.right; child != null; child = child.left) stack.add(child);
+                return node.item;
+            }
+        };
+    }
+    private Node<T> add(Node<T> node, T item) {
+        if (node == null) {
+            changed = true;
+            return new Node<>(item);
+        }
+        int cmp = comparator.compare(item, node.item);
+        if (cmp < 0) node.left = add(node.left, item);
+        else if (cmp > 0) node.right = add(node.right, item);
+        else return node; // Already there
+        return balance(node);
+    }
+    private Node<T> remove(Node<T> node, T item) {
+        if (node == null) return null;
+        int cmp = comparator.compare(item, node.item);
+        if (cmp < 0) node.left = remove(node.left, item);
+        else if (cmp > 0) node.right = remove(node.right, item);
+        else {
+            changed = true;
+            if (node.left == null) return node.right;
+            if (node.right == null) return node.left;
+            Node<T> smallest = node.right;// Replace with the next item and remove that one from the right
+            while (smallest.left != null) smallest = smallest.left;
+            node.item = smallest.item;
+            node.right = removeSmallest(node.right);
+        }
+        return balance(node);
+    }
+    private Node<T> removeSmallest(Node<T> node) {
+        if (node.left == null) return node.right;
+        node.left = removeSmallest(node.left);
+        return balance(node);
+    }
+    private int height(Node<T> node) {return node == null ? 0 : node.height;
+    }
+    private Node<T> balance(Node<T> node) {
+        int difference = height(node.left) - height(node.right);
+        if (difference > 1) {
+            if (height(node.left.left) < height(node.left.right)) node.left = rotateLeft(node.left);
+            node = rotateRight(node);
+        } else if (difference < -1) {
+            if (height(node.right.right) < height(node.right.left)) node.right = rotateRight(node.right);
+            node = rotateLeft(node);
+        } else {
+            node.height = Math.max(height(node.left), height(node.right)) + 1;
+        }
+        return node;
+    }
+    private Node<T> rotateRight(Node<T> node) {
+        Node<T> left = node.left;
+        node.left = left.right;
+        left.right = node;
+        node.height = Math.max(height(node.left), height(node.right)) + 1;
+        left.height = Math.max(height(left.left), height(left.right)) + 1;
+        return left;
+    }
+    private Node<T> rotateLeft(Node<T> node) {
+        Node<T> right = node.right;
+        node.right = right.left;
+        right.left = node;
+        node.height = Math.max(height(node.left), height(node.right)) + 1;
+        right.height = Math.max(height(right.left), height(right.right)) + 1;
+        return right;
+    }
+}
 class PostComparator implements Comparator<Post> {
+    static final PostComparator ORDER = new PostComparator(); // It has no state, so everyone shares this one
     @Override
     public int compare(Post a, Post b) {
         if (a.getLikes() != b.getLikes()) {// Compare likes in descending order
@@ -251,87 +660,126 @@ class PostComparator implements Comparator<Post> {
 }
 
 class User {
+    private final int id; // Interned id, the index of this user in the handler
     private final String userId;
-    private final ArrayList<String> posts; // Stores post IDs created by this user
-    private final MySet<String> followers; // Users following this user
-    private final MySet<String> following; // Users this user is following
-    private final MySet<String> seenPosts; // Posts seen by this user
-    public User(String userId) {
+    private final MyBitmap posts; // Stores ids of the posts created by this user, seeing all of them is one OR
+    private final MyIntSet followers; // Users following this user
+    // Users this user is following, each with the posts of that user this user has not seen yet, in feed order
+    private final MyIntMap<MySortedSet<Post>> following;
+    private final MyBitmap seenPosts; // Posts seen by this user
+    private final MySortedSet<Post> sortedPosts; // The same posts in feed order, by likes and then by postId
+    public User(int id, String userId) {
+        this.id = id;
         this.userId = userId;
-        this.posts = new ArrayList<>();
-        this.followers = new MySet<>();
-        this.following = new MySet<>();
-        this.seenPosts = new MySet<>();
+        this.posts = new MyBitmap();
+        this.followers = new MyIntSet();
+        this.following = new MyIntMap<>();
+        this.seenPosts = new MyBitmap();
+        this.sortedPosts = new MySortedSet<>(PostComparator.ORDER);
+    }
+    public int getId() {
+        return id;
     }
-    public ArrayList<String> getPosts() {
+    public String getUserId() {
+        return userId;
+    }
+    public MyBitmap getPosts() {
         return posts;
     }
-    public MySet<String> getFollowing() {
+    public MyIntSet getFollowers() {
+        return followers;
+    }
+    public MyIntMap<MySortedSet<Post>> getFollowing() {
         return following;
     }
-    public MySet<String> getSeenPosts() {
+    public MySortedSet<Post> getSortedPosts() {
+        return sortedPosts;
+    }
+    public MyBitmap getSeenPosts() {
         return seenPosts;
     }
-    public boolean follow(String userToFollow) {
-        return following.add(userToFollow);
+    public boolean follow(User userToFollow) {
+        if (following.containsKey(userToFollow.getId())) {
+            return false; // Already following
+        }
+        MySortedSet<Post> unseen = new MySortedSet<>(PostComparator.ORDER);
+        for (Post post : userToFollow.getSortedPosts()) {
+            if (!seenPosts.contains(post.getId())) {
+                unseen.add(post);
+            }
+        }
+        return following.put(userToFollow.getId(), unseen);
     }
-    public boolean unfollow(String userToUnfollow) {
+    public boolean unfollow(int userToUnfollow) {
         return following.remove(userToUnfollow);
     }
-    public boolean addFollower(String followerId) {
+    public boolean addFollower(int followerId) {
         return followers.add(followerId);
     }
-    public boolean removeFollower(String followerId) {
+    public boolean removeFollower(int followerId) {
         return followers.remove(followerId);
     }
-    public boolean createPost(String postId) {
-        if (posts.contains(postId)) {
-            return false; // Duplicate post ID
+    public void createPost(Post post) {// Post ids are unique across users, the handler checks that
+        posts.add(post.getId());
+        sortedPosts.add(post);
+    }
+    public boolean seePost(Post post) {
+        if (!seenPosts.add(post.getId())) {
+            return false; // Already seen
+        }
+        MySortedSet<Post> unseen = following.get(post.getAuthorId());
+        if (unseen != null) {
+            unseen.remove(post);
         }
-        posts.add(postId);
         return true;
     }
-    public boolean seePost(String postId) {
-        return seenPosts.add(postId); // Adds postId to seenPosts, returns false if already seen
+    public void seePosts(User author) {
+        seenPosts.or(author.getPosts()); // Mark every post as seen at once
+        if (following.containsKey(author.getId())) {
+            following.put(author.getId(), new MySortedSet<>(PostComparator.ORDER)); // Nothing of theirs is left unseen
+        }
     }
 }
 class Post {
+    private final int id; // Interned id, the index of this post in the handler
     private final String postId; // Unique identifier for the post
-    private final String authorId; // User ID of the post's creator
+    private final int authorId; // Interned id of the post's creator
     private final String content; // Content of the post
     private int likes; // Number of likes on the post
-    private final MySet<String> likedBy; // Set of user IDs who liked the post
-    public Post(String postId, String authorId, String content) {
+    private final MyBitmap likedBy; // Set of ids of the users who liked the post
+    public Post(int id, String postId, int authorId, String content) {
+        this.id = id;
         this.postId = postId;
         this.authorId = authorId;
         this.content = content;
         this.likes = 0;
-        this.likedBy = new MySet<>();
+        this.likedBy = new MyBitmap();
+    }
+    public int getId() {
+        return id;
     }
     public String getPostId() {
         return postId;
     }
-    public String getAuthorId() {
+    public int getAuthorId() {
         return authorId;
     }
     public int getLikes() {
         return likes;
     }
-    public MySet<String> getLikedBy() {
+    public MyBitmap getLikedBy() {
         return likedBy;
     }
-    public void addLike(String userId) {
-        if (likedBy.contains(userId)) {
+    public void addLike(int userId) {
+        if (!likedBy.add(userId)) {
             return; // User has already liked this post
         }
-        likedBy.add(userId);
         likes++;
     }
-    public void removeLike(String userId) {
-        if (!likedBy.contains(userId)) {
+    public void removeLike(int userId) {
+        if (!likedBy.remove(userId)) {
             return; // User hasn't liked this post
         }
-        likedBy.remove(userId);
         likes--;
     }
     public String getContent() {
@@ -339,22 +787,54 @@ class Post {
     }
 }
 
+// The position of a feed merge in the unseen posts of one followee
+class FeedCursor {
+    Post head; // The followee's best post the user has not seen yet
+    private final MySortedSet<Post> unseen;
+    private Iterator<Post> rest; // Made on the first advance, most cursors never get that far
+    FeedCursor(MySortedSet<Post> unseen, Post head) {this.unseen = unseen;this.head = head;
+    }
+    // Move to the next unseen post, false if there is none left
+    boolean advance() {
+        if (rest == null) {
+            rest = unseen.iterator();
+            rest.next(); // The head
+        }
+        head = rest.hasNext() ? rest.next() : null;
+        return head != null;
+    }
+}
 class Operations_Handler {
-    private final MyHashMap<String, User> users; // Stores users by their userId
-    private final MyHashMap<String, Post> posts; // Stores posts by their postId
+    private static final Comparator<FeedCursor> FEED_CURSOR_ORDER =
+            (a, b) -> PostComparator.ORDER.compare(a.head, b.head);
+    private final MyIdTable userIds; // Interned user ids, only users that were created get one
+    private final MyIdTable postIds; // Interned post ids, only posts that were created get one
+    private final ArrayList<User> users; // Users by their interned id
+    private final ArrayList<Post> posts; // Posts by their interned id
     private final StringBuilder log; // Accumulates logs for output
     public Operations_Handler() {
-        this.users = new MyHashMap<>();
-        this.posts = new MyHashMap<>();
+        this.userIds = new MyIdTable();
+        this.postIds = new MyIdTable();
+        this.users = new ArrayList<>();
+        this.posts = new ArrayList<>();
         this.log = new StringBuilder();
     }
+    // Look up a user or post by its string id, null if it was never created
+    private User user(String userId) {
+        int id = userIds.find(userId);
+        return id < 0 ? null : users.get(id);
+    }
+    private Post post(String postId) {
+        int id = postIds.find(postId);
+        return id < 0 ? null : posts.get(id);
+    }
     // Method to create a new user
     public void createUser(String userId) {
-        if (users.containsKey(userId)) {
+        if (userIds.find(userId) >= 0) {
             log.append("Some error occurred in create_user.\n");
             return;
         }
-        users.put(userId, new User(userId));
+        users.add(new User(userIds.intern(userId), userId));
         log.append("Created user with Id ").append(userId).append(".\n");
     }
     public void followUser(String followerId, String followeeId) {
@@ -363,104 +843,116 @@ class Operations_Handler {
             log.append("Some error occurred in follow_user.\n");
             return;
         }
-        User follower = users.get(followerId);
-        User followee = users.get(followeeId);
-        if (follower == null || followee == null || !follower.follow(followeeId)) {
+        User follower = user(followerId);
+        User followee = user(followeeId);
+        if (follower == null || followee == null || !follower.follow(followee)) {
             log.append("Some error occurred in follow_user.\n");
             return;
         }
-        followee.addFollower(followerId);
+        followee.addFollower(follower.getId());
         log.append(followerId).append(" followed ").append(followeeId).append(".\n");
     }
 
     public void unfollowUser(String followerId, String followeeId) {
-        User follower = users.get(followerId);
-        User followee = users.get(followeeId);
+        User follower = user(followerId);
+        User followee = user(followeeId);
 
-        if (follower == null || followee == null || !follower.unfollow(followeeId)) {
+        if (follower == null || followee == null || !follower.unfollow(followee.getId())) {
             log.append("Some error occurred in unfollow_user.\n");
             return;
         }
-        followee.removeFollower(followerId);
+        followee.removeFollower(follower.getId());
         log.append(followerId).append(" unfollowed ").append(followeeId).append(".\n");
     }
 
     public void createPost(String userId, String postId, String content) {
-        User user = users.get(userId);
+        User user = user(userId);
 
-        if (user == null || posts.containsKey(postId)) {
+        if (user == null || postIds.find(postId) >= 0) {
             log.append("Some error occurred in create_post.\n");
             return;
         }
-        Post post = new Post(postId, userId, content);
-        posts.put(postId, post);
-        user.createPost(postId);
+        Post post = new Post(postIds.intern(postId), postId, user.getId(), content);
+        posts.add(post);
+        user.createPost(post);
+        for (int followerId : user.getFollowers().toArray()) {// Nobody has seen a new post yet
+            users.get(followerId).getFollowing().get(user.getId()).add(post);
+        }
         log.append(userId).append(" created a post with Id ").append(postId).append(".\n");
     }
 
     public void seePost(String userId, String postId) {
-        User user = users.get(userId);
-        Post post = posts.get(postId);
+        User user = user(userId);
+        Post post = post(postId);
         if (user == null || post == null) {
             log.append("Some error occurred in see_post.\n");
             return;
         }
-        user.seePost(postId);
+        user.seePost(post);
         log.append(userId).append(" saw ").append(postId).append(".\n");
     }
     public void toggleLike(String userId, String postId) {
-        User user = users.get(userId);
-        Post post = posts.get(postId);
+        User user = user(userId);
+        Post post = post(postId);
         if (user == null || post == null) {
             log.append("Some error occurred in toggle_like.\n");
             return;
         }
-        if (post.getLikedBy().contains(userId)) {
-            post.removeLike(userId);
+        if (post.getLikedBy().contains(user.getId())) {
+            changeLike(post, user, false);
             log.append(userId).append(" unliked ").append(postId).append(".\n");
         } else {
-            post.addLike(userId);
-            user.seePost(postId); // Liking a post also marks it as seen
+            changeLike(post, user, true);
+            user.seePost(post); // Liking a post also marks it as seen
             log.append(userId).append(" liked ").append(postId).append(".\n");
         }
     }
+    // The like count orders the author's posts and the unseen posts of the author's followers,
+    // so the post leaves those orders while it changes and goes back after
+    private void changeLike(Post post, User user, boolean like) {
+        User author = users.get(post.getAuthorId());
+        ArrayList<MySortedSet<Post>> holding = new ArrayList<>();
+        holding.add(author.getSortedPosts());
+        for (int followerId : author.getFollowers().toArray()) {
+            User follower = users.get(followerId);
+            if (!follower.getSeenPosts().contains(post.getId())) {// Followers who saw the post do not hold it
+                holding.add(follower.getFollowing().get(author.getId()));
+            }
+        }
+        for (MySortedSet<Post> order : holding) {
+            order.remove(post);
+        }
+        if (like) {
+            post.addLike(user.getId());
+        } else {
+            post.removeLike(user.getId());
+        }
+        for (MySortedSet<Post> order : holding) {
+            order.add(post);
+        }
+    }
     public void seeAllPostsFromUser(String viewerId, String viewedId) {
-        User viewer = users.get(viewerId);
-        User viewed = users.get(viewedId);
+        User viewer = user(viewerId);
+        User viewed = user(viewedId);
         if (viewer == null || viewed == null) {
             log.append("Some error occurred in see_all_posts_from_user.\n");
             return;
         }
-        for (String postId : viewed.getPosts()) {
-            viewer.seePost(postId); // Mark each post as seen
-        }
+        viewer.seePosts(viewed);
         log.append(viewerId).append(" saw all posts of ").append(viewedId).append(".\n");
     }
     public void generateFeed(String userId, int num) {
-        User user = users.get(userId);
+        User user = user(userId);
         if (user == null) {
             log.append("Some error occurred in generate_feed.\n");
             return;
         }
-        Comparator<Post> postComparator = new PostComparator();
-        MyPriorityQueue<Post> feedQueue = new MyPriorityQueue<>(postComparator);
-        for (String followeeId : user.getFollowing().getItems()) {
-            User followee = users.get(followeeId);
-            if (followee == null) continue;
-            for (String postId : followee.getPosts()) {
-                Post post = posts.get(postId);
-                // Exclude posts created by the user or already seen
-                if (post == null || user.getSeenPosts().contains(postId) || post.getAuthorId().equals(userId)) {
-                    continue;
-                }
-                feedQueue.add(post);
-            }
-        }
         log.append("Feed for ").append(userId).append(":\n");
         int count = 0;
-        while (!feedQueue.isEmpty() && count < num) {
-            Post post = feedQueue.poll();
-            log.append("Post ID: ").append(post.getPostId()).append(", Author: ").append(post.getAuthorId()).append(", Likes: ").append(post.getLikes()).append("\n");
+        MyPriorityQueue<FeedCursor> feed = openFeed(user, num);
+        while (!feed.isEmpty() && count < num) {
+            Post post = nextInFeed(feed);
+            log.append("Post ID: ").append(post.getPostId()).append(", Author: ").append(userIds.name(post.getAuthorId())).append(", Likes: ").append(post.getLikes()).append("\n");
             count++;
         }
         if (count < num) {
@@ -468,33 +960,22 @@ class Operations_Handler {
         }
     }
     public void scrollThroughFeed(String userId, int num, ArrayList<Integer> likeSequence) {
-        User user = users.get(userId);
+        User user = user(userId);
         if (user == null) {
             log.append("Some error occurred in scroll_through_feed.\n");
             return;
         }
         log.append(userId).append(" is scrolling through feed:\n");
-        Comparator<Post> postComparator = new PostComparator();
-        MyPriorityQueue<Post> feedQueue = new MyPriorityQueue<>(postComparator);
-        for (String followeeId : user.getFollowing().getItems()) {
-            User followee = users.get(followeeId);
-            if (followee == null) continue;
-            for (String postId : followee.getPosts()) {
-                Post post = posts.get(postId);
-                // Exclude posts created by the user or already seen
-                if (post == null || user.getSeenPosts().contains(postId) || post.getAuthorId().equals(userId)) {
-                    continue;
-                }
-                feedQueue.add(post);
-            }
-        }
         int count = 0;
-        while (!feedQueue.isEmpty() && count < num) {
-            Post post = feedQueue.poll();
-            user.seePost(post.getPostId()); // Mark post as seen
+        MyPriorityQueue<FeedCursor> feed = openFeed(user, num);
+        ArrayList<Post> seenPosts = new ArrayList<>();
+        ArrayList<Post> likedPosts = new ArrayList<>();
+        while (!feed.isEmpty() && count < num) {
+            Post post = nextInFeed(feed);
+            seenPosts.add(post);
             boolean liked = likeSequence.get(count) == 1;
             if (liked) {
-                post.addLike(userId);
+                likedPosts.add(post);
                 log.append(userId).append(" saw ").append(post.getPostId())
                         .append(" while scrolling and clicked the like button.\n");
             } else {
@@ -506,75 +987,67 @@ class Operations_Handler {
         if (count < num) {
             log.append("No more posts in feed.\n");
         }
+        // The posts are marked seen and liked once the merge is done, as it walks the unseen posts in their current order.
+        // The merge never returns a post twice and only posts that already left it change, so nothing comes out differently
+        for (Post post : seenPosts) {
+            user.seePost(post);
+        }
+        for (Post post : likedPosts) {
+            changeLike(post, user, true);
+        }
+    }
+    // Start a merge of the unseen posts of everyone the user follows: each followee's are already in feed order,
+    // so the heap only needs the best unseen post of each followee and never skips over seen ones.
+    // At most num posts are taken, so a followee whose best post is not among the num best heads never gets a turn.
+    // The heads go through a heap of at most num cursors with the worst on top, which drops every head that cannot
+    // beat it, so the merge holds O(num) cursors however many users are followed
+    private MyPriorityQueue<FeedCursor> openFeed(User user, int num) {
+        if (num <= 0) {
+            return new MyPriorityQueue<>(FEED_CURSOR_ORDER);
+        }
+        MyPriorityQueue<FeedCursor> best = new MyPriorityQueue<>((a, b) -> FEED_CURSOR_ORDER.compare(b, a));
+        for (MySortedSet<Post> unseen : user.getFollowing()) {
+            Post head = unseen.first();
+            if (head == null) {
+                continue; // Everything of theirs is seen
+            }
+            if (best.size() < num) {
+                best.add(new FeedCursor(unseen, head));
+            } else if (PostComparator.ORDER.compare(head, best.peek().head) < 0) {
+                best.replaceTop(new FeedCursor(unseen, head)); // Better than the worst kept head, which is dropped
+            }
+        }
+        ArrayList<FeedCursor> heads = new ArrayList<>(best.size());
+        while (!best.isEmpty()) {
+            heads.add(best.poll());
+        }
+        return new MyPriorityQueue<>(heads, FEED_CURSOR_ORDER);
+    }
+    // Take the best post from the merge and move its followee on to the next unseen post
+    private Post nextInFeed(MyPriorityQueue<FeedCursor> feed) {
+        FeedCursor cursor = feed.poll();
+        Post post = cursor.head;
+        if (cursor.advance()) {
+            feed.add(cursor);
+        }
+        return post;
     }
     // Method to sort posts of a user
     public void sortPosts(String userId) {
-        User user = users.get(userId);
+        User user = user(userId);
         if (user == null) {
             log.append("Some error occurred in sort_posts.\n");
             return;
         }
-        ArrayList<Post> userPosts = new ArrayList<>();
-        for (String postId : user.getPosts()) {
-            userPosts.add(posts.get(postId));
-        }
-        if (userPosts.isEmpty()) {
+        if (user.getSortedPosts().isEmpty()) {
             log.append("No posts from ").append(userId).append(".\n");
             return;
         }
         log.append("Sorting ").append(userId).append("'s posts:\n");
-        Comparator<Post> postComparator = new PostComparator();
-        sortPostList(userPosts, postComparator);
-        for (Post post : userPosts) {
+        for (Post post : user.getSortedPosts()) {// Already kept in this order
             log.append(post.getPostId()).append(", Likes: ").append(post.getLikes()).append("\n");
         }
     }
-    private void sortPostList(ArrayList<Post> posts, Comparator<Post> comparator) {
-        if (posts == null || posts.size() <= 1) {
-            return;
-        }
-        mergeSort(posts, 0, posts.size() - 1, comparator);
-    }
-
-    private void mergeSort(ArrayList<Post> posts, int left, int right, Comparator<Post> comparator) {
-        if (left < right) {
-            int mid = left + (right - left) / 2;
-            // Recursively split and sort the left half
-            mergeSort(posts, left, mid, comparator);
-            // Recursively split and sort the right half
-            mergeSort(posts, mid + 1, right, comparator);
-            // Merge the sorted halves
-            merge(posts, left, mid, right, comparator);
-        }
-    }
-    private void merge(ArrayList<Post> posts, int left, int mid, int right, Comparator<Post> comparator) {
-        int n1 = mid - left + 1;
-        int n2 = right - mid;
-        // Create temporary arrays to hold the split data
-        ArrayList<Post> leftArray = new ArrayList<>(n1);
-        ArrayList<Post> rightArray = new ArrayList<>(n2);
-        // Copy data to temporary arrays
-        for (int i = 0; i < n1; i++) {
-            leftArray.add(posts.get(left + i));
-        }
-        for (int j = 0; j < n2; j++) {
-            rightArray.add(posts.get(mid + 1 + j));
-        }
-        // Merge the temporary arrays back into the original list
-        int i = 0, j = 0, k = left;
-        while (i < n1 && j < n2) {
-            if (comparator.compare(leftArray.get(i), rightArray.get(j)) <= 0) {posts.set(k, leftArray.get(i));i++;
-            } else {posts.set(k, rightArray.get(j));j++;
-            }
-            k++;
-        }
-        // Copy remaining elements from leftArray if any
-        while (i < n1) {posts.set(k, leftArray.get(i));i++;k++;
-        }
-        // Copy remaining elements from rightArray if any
-        while (j < n2) {posts.set(k, rightArray.get(j));j++;k++;
-        }
-    }
     // Retrieve the accumulated log
     public String getLog() {return log.toString();
     }
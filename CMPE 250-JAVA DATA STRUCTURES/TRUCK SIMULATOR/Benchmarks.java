@@ -0,0 +1,659 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+// Benchmarks for the data structures of the truck simulator, each next to its java.util counterpart
+// Compile together with Main.java and run: javac Main.java Benchmarks.java && java Benchmarks [name filter]
+// Every benchmark is warmed up first, then timed over several rounds, and the median time per operation is reported
+public class Benchmarks {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+    private static final int[] SIZES = {1_000, 100_000, 1_000_000};
+    private static final String[] DISTRIBUTIONS = {"sequential", "random", "clustered"};
+    private static final int RANGE_QUERIES = 20;// tailMap copies the whole tail, so it gets fewer operations
+    private static final int COMMANDS = 200_000;// Commands per end-to-end run
+    private static long sink;// Every benchmark folds its results in here so the JIT can't drop the work
+    private static String filter = "";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0) {
+            filter = args[0];
+        }
+        System.out.printf("%-48s %8s %12s %12s%n", "benchmark", "size", "ns/op", "min ns/op");
+        for (int size : SIZES) {
+            for (String distribution : DISTRIBUTIONS) {
+                int[] keys = keys(distribution, size, 42);
+                int[] lookups = shuffled(keys, 7);
+                treeBenchmarks(distribution, keys, lookups);
+                hashMapBenchmarks(distribution, keys, lookups);
+            }
+            queueBenchmarks(size);
+        }
+        fleetBenchmarks();
+        System.out.println("(sink " + sink + ")");
+    }
+
+    private static void treeBenchmarks(String distribution, int[] keys, int[] lookups) {
+        int n = keys.length;
+        measure("AVLTree.insert " + distribution, n, n, () -> null, unused -> {
+            AVLTree<Integer, Integer> tree = new AVLTree<>();
+            for (int key : keys) tree.insert(key, key);
+            return 1;
+        });
+        measure("TreeMap.put " + distribution, n, n, () -> null, unused -> {
+            TreeMap<Integer, Integer> map = new TreeMap<>();
+            for (int key : keys) map.put(key, key);
+            return map.size();
+        });
+        measure("IntSortedIndex.insert " + distribution, n, n, () -> null, unused -> {
+            IntSortedIndex<Integer> index = new IntSortedIndex<>();
+            for (int key : keys) index.insert(key, key);
+            return index.size();
+        });
+        measure("AVLTree.remove " + distribution, n, n, () -> avlTree(keys), tree -> {
+            for (int key : lookups) tree.remove(key);
+            return 1;
+        });
+        measure("TreeMap.remove " + distribution, n, n, () -> treeMap(keys), map -> {
+            for (int key : lookups) map.remove(key);
+            return map.size();
+        });
+        AVLTree<Integer, Integer> tree = avlTree(keys);
+        TreeMap<Integer, Integer> map = treeMap(keys);
+        IntSortedIndex<Integer> index = intSortedIndex(keys);
+        for (int key : keys) {// Same weights in both, for the range counts
+            tree.adjust(key, key & 7, 0);
+            index.addWeight(key, key & 7);
+        }
+        measure("AVLTree.get " + distribution, n, n, () -> tree, t -> {
+            long sum = 0;
+            for (int key : lookups) sum += t.get(key);
+            return sum;
+        });
+        measure("TreeMap.get " + distribution, n, n, () -> map, m -> {
+            long sum = 0;
+            for (int key : lookups) sum += m.get(key);
+            return sum;
+        });
+        measure("IntSortedIndex.get " + distribution, n, n, () -> index, x -> {
+            long sum = 0;
+            for (int key : lookups) sum += x.get(key);
+            return sum;
+        });
+        measure("AVLTree.findNextLower " + distribution, n, n, () -> tree, t -> {
+            long sum = 0;
+            for (int key : lookups) sum += nullToZero(t.findNextLower(key));
+            return sum;
+        });
+        measure("TreeMap.lowerKey " + distribution, n, n, () -> map, m -> {
+            long sum = 0;
+            for (int key : lookups) sum += nullToZero(m.lowerKey(key));
+            return sum;
+        });
+        measure("IntSortedIndex.findNextLower " + distribution, n, n, () -> index, x -> {
+            long sum = 0;
+            for (int key : lookups) sum += nullToZero(x.findNextLower(key));
+            return sum;
+        });
+        measure("AVLTree.higherKey " + distribution, n, n, () -> tree, t -> {
+            long sum = 0;
+            for (int key : lookups) sum += nullToZero(t.higherKey(key));
+            return sum;
+        });
+        measure("TreeMap.higherKey " + distribution, n, n, () -> map, m -> {
+            long sum = 0;
+            for (int key : lookups) sum += nullToZero(m.higherKey(key));
+            return sum;
+        });
+        measure("IntSortedIndex.higherKey " + distribution, n, n, () -> index, x -> {
+            long sum = 0;
+            for (int key : lookups) sum += nullToZero(x.higherKey(key));
+            return sum;
+        });
+        measure("AVLTree.tailWeight " + distribution, n, n, () -> tree, t -> {
+            long sum = 0;
+            for (int key : lookups) sum += t.tailWeight(key, false);
+            return sum;
+        });
+        measure("IntSortedIndex.tailWeight " + distribution, n, n, () -> index, x -> {
+            long sum = 0;
+            for (int key : lookups) sum += x.tailWeight(key, false);
+            return sum;
+        });
+        measure("AVLTree.tailMap " + distribution, n, RANGE_QUERIES, () -> tree, t -> {
+            long sum = 0;
+            for (int i = 0; i < RANGE_QUERIES; i++) sum += t.tailMap(lookups[i % n], false).values().size();
+            return sum;
+        });
+        measure("TreeMap.tailMap " + distribution, n, RANGE_QUERIES, () -> map, m -> {
+            long sum = 0;
+            for (int i = 0; i < RANGE_QUERIES; i++) sum += new HashMap<>(m.tailMap(lookups[i % n], false)).size();
+            return sum;
+        });
+    }
+
+    private static void hashMapBenchmarks(String distribution, int[] keys, int[] lookups) {
+        int n = keys.length;
+        // put on a fresh map includes every rehash on the way up
+        measure("MyHashMap.put+rehash " + distribution, n, n, () -> null, unused -> {
+            MyHashMap<Integer, Integer> map = new MyHashMap<>();
+            for (int key : keys) map.put(key, key);
+            return 1;
+        });
+        measure("IntObjectMap.put+rehash " + distribution, n, n, () -> null, unused -> {
+            IntObjectMap<Integer> map = new IntObjectMap<>();
+            for (int key : keys) map.put(key, key);
+            return map.size();
+        });
+        measure("HashMap.put+rehash " + distribution, n, n, () -> null, unused -> {
+            HashMap<Integer, Integer> map = new HashMap<>();
+            for (int key : keys) map.put(key, key);
+            return map.size();
+        });
+        MyHashMap<Integer, Integer> myHashMap = new MyHashMap<>();
+        IntObjectMap<Integer> intObjectMap = new IntObjectMap<>();
+        HashMap<Integer, Integer> hashMap = new HashMap<>();
+        for (int key : keys) {
+            myHashMap.put(key, key);
+            intObjectMap.put(key, key);
+            hashMap.put(key, key);
+        }
+        measure("MyHashMap.get " + distribution, n, n, () -> myHashMap, m -> {
+            long sum = 0;
+            for (int key : lookups) sum += m.get(key);
+            return sum;
+        });
+        measure("IntObjectMap.get " + distribution, n, n, () -> intObjectMap, m -> {
+            long sum = 0;
+            for (int key : lookups) sum += m.get(key);
+            return sum;
+        });
+        measure("HashMap.get " + distribution, n, n, () -> hashMap, m -> {
+            long sum = 0;
+            for (int key : lookups) sum += m.get(key);
+            return sum;
+        });
+        measure("MyHashMap.remove " + distribution, n, n, () -> {
+            MyHashMap<Integer, Integer> map = new MyHashMap<>();
+            for (int key : keys) map.put(key, key);
+            return map;
+        }, m -> {
+            long removed = 0;
+            for (int key : lookups) if (m.remove(key)) removed++;
+            return removed;
+        });
+        measure("IntObjectMap.remove " + distribution, n, n, () -> {
+            IntObjectMap<Integer> map = new IntObjectMap<>();
+            for (int key : keys) map.put(key, key);
+            return map;
+        }, m -> {
+            long removed = 0;
+            for (int key : lookups) if (m.remove(key)) removed++;
+            return removed;
+        });
+        measure("HashMap.remove " + distribution, n, n, () -> new HashMap<>(hashMap), m -> {
+            long removed = 0;
+            for (int key : lookups) if (m.remove(key) != null) removed++;
+            return removed;
+        });
+    }
+
+    private static void queueBenchmarks(int n) {
+        Integer[] items = new Integer[n];
+        for (int i = 0; i < n; i++) items[i] = i;
+        // Fill up then empty, so the queue grows from its default size every round
+        measure("MyQueue.enqueue+dequeue", n, n, () -> null, unused -> {
+            MyQueue<Integer> queue = new MyQueue<>();
+            for (Integer item : items) queue.enqueue(item);
+            long sum = 0;
+            while (!queue.isEmpty()) sum += queue.dequeue();
+            return sum;
+        });
+        measure("ArrayDeque.offer+poll", n, n, () -> null, unused -> {
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            for (Integer item : items) queue.offer(item);
+            long sum = 0;
+            while (!queue.isEmpty()) sum += queue.poll();
+            return sum;
+        });
+        // A queue that stays short, like the queues of a busy parking lot
+        measure("MyQueue.steady", n, n, () -> null, unused -> {
+            MyQueue<Integer> queue = new MyQueue<>();
+            long sum = 0;
+            for (Integer item : items) {
+                queue.enqueue(item);
+                if (queue.size() > 8) sum += queue.dequeue();
+            }
+            return sum;
+        });
+        measure("ArrayDeque.steady", n, n, () -> null, unused -> {
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            long sum = 0;
+            for (Integer item : items) {
+                queue.offer(item);
+                if (queue.size() > 8) sum += queue.poll();
+            }
+            return sum;
+        });
+    }
+
+    // Whole FleetManager runs over generated command mixes, the output goes to a temporary file
+    private static void fleetBenchmarks() throws IOException {
+        File output = File.createTempFile("fleet-benchmark", ".txt");
+        output.deleteOnExit();
+        // Shares of create, delete, add_truck, ready, load and count in each mix
+        runMix("balanced", new int[]{10, 2, 30, 25, 23, 10}, 2_000, output);
+        runMix("add-heavy", new int[]{5, 1, 70, 14, 5, 5}, 2_000, output);
+        runMix("count-heavy", new int[]{5, 1, 20, 10, 4, 60}, 2_000, output);
+        runMix("many-lots", new int[]{30, 2, 40, 20, 0, 8}, 1_000_000, output);
+    }
+
+    private static void runMix(String name, int[] shares, int capacityRange, File output) {
+        Random random = new Random(11);
+        int[] commands = new int[COMMANDS];
+        int[] firsts = new int[COMMANDS];
+        int[] seconds = new int[COMMANDS];
+        int totalShare = Arrays.stream(shares).sum();
+        int truckId = 0;
+        for (int i = 0; i < COMMANDS; i++) {
+            int pick = random.nextInt(totalShare);
+            int command = 0;
+            while (pick >= shares[command]) {
+                pick -= shares[command++];
+            }
+            commands[i] = command;// Same order as the CommandReader codes
+            firsts[i] = command == CommandReader.ADD_TRUCK ? ++truckId : random.nextInt(capacityRange);
+            seconds[i] = command == CommandReader.CREATE_PARKING_LOT ? 1 + random.nextInt(50)
+                    : command == CommandReader.LOAD ? random.nextInt(capacityRange * 2) : random.nextInt(capacityRange);
+        }
+        measure("FleetManager " + name, capacityRange, COMMANDS, () -> null, unused -> {
+            try (ResultWriter writer = new ResultWriter(output.getPath())) {
+                FleetManager fleetManager = new FleetManager(writer);
+                for (int i = 0; i < COMMANDS; i++) {
+                    switch (commands[i]) {
+                        case CommandReader.CREATE_PARKING_LOT:
+                            fleetManager.createParkingLot(firsts[i], seconds[i]);
+                            break;
+                        case CommandReader.DELETE_PARKING_LOT:
+                            fleetManager.deleteParkingLot(firsts[i]);
+                            break;
+                        case CommandReader.ADD_TRUCK:
+                            fleetManager.addTruck(firsts[i], seconds[i]);
+                            break;
+                        case CommandReader.READY:
+                            fleetManager.readyTruck(firsts[i]);
+                            break;
+                        case CommandReader.LOAD:
+                            fleetManager.loadTrucks(firsts[i], seconds[i]);
+                            break;
+                        default:
+                            fleetManager.countTrucks(firsts[i]);
+                            break;
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return 1;
+        });
+    }
+
+    // Run setup untimed and body timed for every round, then report the median and the best time per operation
+    private static <S> void measure(String name, int size, int operations, Supplier<S> setup, ToLongFunction<S> body) {
+        if (!name.contains(filter)) {
+            return;
+        }
+        long[] times = new long[MEASURED_ROUNDS];
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            S state = setup.get();
+            long start = System.nanoTime();
+            sink += body.applyAsLong(state);
+            long elapsed = System.nanoTime() - start;
+            if (round >= WARMUP_ROUNDS) {
+                times[round - WARMUP_ROUNDS] = elapsed;
+            }
+        }
+        Arrays.sort(times);
+        System.out.printf("%-48s %8d %12.1f %12.1f%n", name, size,
+                (double) times[MEASURED_ROUNDS / 2] / operations, (double) times[0] / operations);
+    }
+
+    // Distinct keys: 0..n-1 in order, spread uniformly at random, or in runs of 64 around random centers
+    private static int[] keys(String distribution, int n, long seed) {
+        Random random = new Random(seed);
+        int[] keys = new int[n];
+        switch (distribution) {
+            case "sequential":
+                for (int i = 0; i < n; i++) keys[i] = i;
+                return keys;
+            case "random":
+                return random.ints(0, Integer.MAX_VALUE).distinct().limit(n).toArray();
+            default:
+                int[] centers = random.ints(0, Integer.MAX_VALUE / 64).distinct().limit((n + 63) / 64).toArray();
+                for (int i = 0; i < n; i++) keys[i] = centers[i / 64] * 64 + i % 64;
+                return shuffled(keys, seed + 1);
+        }
+    }
+
+    private static int[] shuffled(int[] keys, long seed) {
+        int[] copy = keys.clone();
+        Random random = new Random(seed);
+        for (int i = copy.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = copy[i];
+            copy[i] = copy[j];
+            copy[j] = swap;
+        }
+        return copy;
+    }
+
+    private static AVLTree<Integer, Integer> avlTree(int[] keys) {
+        AVLTree<Integer, Integer> tree = new AVLTree<>();
+        for (int key : keys) tree.insert(key, key);
+        return tree;
+    }
+
+    private static IntSortedIndex<Integer> intSortedIndex(int[] keys) {
+        IntSortedIndex<Integer> index = new IntSortedIndex<>();
+        for (int key : keys) index.insert(key, key);
+        return index;
+    }
+
+    private static TreeMap<Integer, Integer> treeMap(int[] keys) {
+        TreeMap<Integer, Integer> map = new TreeMap<>();
+        for (int key : keys) map.put(key, key);
+        return map;
+    }
+
+    private static long nullToZero(Integer value) {
+        return value == null ? 0 : value;
+    }
+}
+
+// A sorted index over int keys kept in flat arrays instead of linked nodes, so a search touches few cache lines
+// The keys are searched in Eytzinger (breadth-first) order, the weights are summed with a Fenwick tree
+// Removed keys are only marked and new keys wait in a small sorted buffer, both are folded in by a periodic rebuild
+// It answers the same lookups as AVLTree (get, findNextLower, higherKey, tailWeight) and is meant for read-heavy use
+// FleetManager needs the flagged searches and cursors of AVLTree, so this index lives here and is only benchmarked
+class IntSortedIndex<V> {
+    private static final int MIN_PENDING = 128;// Buffered inserts plus removed keys that trigger a rebuild, at least
+    private static final int SQRT_FACTOR = 16;// Moving buffer entries is much cheaper per key than a rebuild
+
+    private int[] keys = new int[0];// Sorted keys of the main part
+    private V[] values;// A null value marks a removed key
+    private int[] weights;
+    private int[] fenwick;// Fenwick tree over weights, 1-based
+    private int[] liveFenwick;// Fenwick tree counting the keys that are not removed, to jump over removed runs
+    private int[] eytzinger;// keys in breadth-first order of the implicit search tree, 1-based
+    private int[] rankOf;// Position in keys of every Eytzinger slot
+    private int size;// Number of live keys in the main part
+    private int removed;// Number of removed keys still in the main part
+
+    private int[] pendingKeys = new int[MIN_PENDING];// Sorted buffer of keys that are not in the main part yet
+    private V[] pendingValues;
+    private int[] pendingWeights = new int[MIN_PENDING];
+    private int[] pendingPrefix = new int[MIN_PENDING + 1];// Sum of the buffered weights before each position
+    private int pendingCount;
+    // The rebuild threshold grows with the square root of the size: a rebuild costs O(n) and an insert into the
+    // buffer O(threshold), so n inserts take O(n sqrt n) in total instead of O(n^2) with a fixed threshold
+    private int maxPending = MIN_PENDING;
+
+    @SuppressWarnings("unchecked")
+    public IntSortedIndex() {
+        values = (V[]) new Object[0];
+        weights = new int[0];
+        fenwick = new int[1];
+        liveFenwick = new int[1];
+        eytzinger = new int[1];
+        rankOf = new int[1];
+        pendingValues = (V[]) new Object[MIN_PENDING];
+    }
+    // Add a key-value pair, or update the value if the key is already there
+    public void insert(int key, V value) {
+        if (value == null) {
+            throw new RuntimeException("null value");
+        }
+        int i = lowerBound(key);
+        if (i < keys.length && keys[i] == key) {
+            if (values[i] == null) {// Bring a removed key back to life with no weight
+                removed--;
+                size++;
+                weights[i] = 0;
+                addToFenwick(liveFenwick, i, 1);
+            }
+            values[i] = value;
+            return;
+        }
+        int p = pendingLowerBound(key);
+        if (p < pendingCount && pendingKeys[p] == key) {
+            pendingValues[p] = value;
+            return;
+        }
+        if (pendingCount == pendingKeys.length) {
+            pendingKeys = Arrays.copyOf(pendingKeys, pendingCount * 2);
+            pendingValues = Arrays.copyOf(pendingValues, pendingCount * 2);
+            pendingWeights = Arrays.copyOf(pendingWeights, pendingCount * 2);
+            pendingPrefix = Arrays.copyOf(pendingPrefix, pendingCount * 2 + 1);
+        }
+        System.arraycopy(pendingKeys, p, pendingKeys, p + 1, pendingCount - p);
+        System.arraycopy(pendingValues, p, pendingValues, p + 1, pendingCount - p);
+        System.arraycopy(pendingWeights, p, pendingWeights, p + 1, pendingCount - p);
+        pendingKeys[p] = key;
+        pendingValues[p] = value;
+        pendingWeights[p] = 0;
+        System.arraycopy(pendingPrefix, p, pendingPrefix, p + 1, pendingCount - p + 1);// A new key has no weight
+        pendingCount++;
+        rebuildIfNeeded();
+    }
+    // Remove a key, does nothing if the key is missing
+    public void remove(int key) {
+        int i = lowerBound(key);
+        if (i < keys.length && keys[i] == key && values[i] != null) {
+            addToFenwick(fenwick, i, -weights[i]);
+            addToFenwick(liveFenwick, i, -1);
+            values[i] = null;
+            weights[i] = 0;
+            size--;
+            removed++;
+            rebuildIfNeeded();
+            return;
+        }
+        int p = pendingLowerBound(key);
+        if (p < pendingCount && pendingKeys[p] == key) {
+            System.arraycopy(pendingKeys, p + 1, pendingKeys, p, pendingCount - p - 1);
+            System.arraycopy(pendingValues, p + 1, pendingValues, p, pendingCount - p - 1);
+            int weight = pendingWeights[p];
+            System.arraycopy(pendingWeights, p + 1, pendingWeights, p, pendingCount - p - 1);
+            System.arraycopy(pendingPrefix, p + 2, pendingPrefix, p + 1, pendingCount - p - 1);
+            pendingValues[--pendingCount] = null;
+            if (weight != 0) {
+                addToPendingPrefix(p, -weight);
+            }
+        }
+    }
+    // Get the value associated with a key
+    public V get(int key) {
+        int i = lowerBound(key);
+        if (i < keys.length && keys[i] == key && values[i] != null) {
+            return values[i];
+        }
+        int p = pendingLowerBound(key);
+        return (p < pendingCount && pendingKeys[p] == key) ? pendingValues[p] : null;
+    }
+    // Add delta to the weight of a key, does nothing if the key is missing
+    public void addWeight(int key, int delta) {
+        int i = lowerBound(key);
+        if (i < keys.length && keys[i] == key && values[i] != null) {
+            weights[i] += delta;
+            addToFenwick(fenwick, i, delta);
+            return;
+        }
+        int p = pendingLowerBound(key);
+        if (p < pendingCount && pendingKeys[p] == key) {
+            pendingWeights[p] += delta;
+            addToPendingPrefix(p, delta);
+        }
+    }
+    // Method to find the next lower key, null if there is none
+    public Integer findNextLower(int key) {
+        int i = lowerBound(key) - 1;
+        if (i >= 0 && values[i] == null) {// Jump to the last live key before it
+            int live = fenwickPrefix(liveFenwick, i + 1);
+            i = live == 0 ? -1 : nthLive(live);
+        }
+        int p = pendingLowerBound(key) - 1;
+        if (i < 0 && p < 0) return null;
+        if (i < 0) return pendingKeys[p];
+        if (p < 0) return keys[i];
+        return Math.max(keys[i], pendingKeys[p]);
+    }
+    // Method to find the next higher key, null if there is none
+    public Integer higherKey(int key) {
+        int i = (key == Integer.MAX_VALUE) ? keys.length : lowerBound(key + 1);
+        if (i < keys.length && values[i] == null) {// Jump to the first live key after it
+            int live = fenwickPrefix(liveFenwick, i);
+            i = live == size ? keys.length : nthLive(live + 1);
+        }
+        int p = (key == Integer.MAX_VALUE) ? pendingCount : pendingLowerBound(key + 1);
+        if (i == keys.length && p == pendingCount) return null;
+        if (i == keys.length) return pendingKeys[p];
+        if (p == pendingCount) return keys[i];
+        return Math.min(keys[i], pendingKeys[p]);
+    }
+    // Sum of the weights of all keys greater than (or equal to, if inclusive) the given key
+    public int tailWeight(int key, boolean inclusive) {
+        long from = inclusive ? key : (long) key + 1;
+        if (from > Integer.MAX_VALUE) {
+            return 0;
+        }
+        int i = lowerBound((int) from);
+        int p = pendingLowerBound((int) from);
+        return fenwickPrefix(fenwick, keys.length) - fenwickPrefix(fenwick, i)
+                + pendingPrefix[pendingCount] - pendingPrefix[p];
+    }
+    // Get the number of keys in the index
+    public int size() {
+        return size + pendingCount;
+    }
+    // Position in keys of the first key greater than or equal to the given key, walking the Eytzinger layout
+    private int lowerBound(int key) {
+        int n = keys.length;
+        int k = 1;
+        while (k <= n) {
+            k = 2 * k + (eytzinger[k] < key ? 1 : 0);
+        }
+        k >>= Integer.numberOfTrailingZeros(~k) + 1;// Undo the right turns taken after the last left turn
+        return k == 0 ? n : rankOf[k];
+    }
+    // Position in the buffer of the first key greater than or equal to the given key
+    private int pendingLowerBound(int key) {
+        int low = 0, high = pendingCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (pendingKeys[middle] < key) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+    private static void addToFenwick(int[] tree, int index, int delta) {
+        for (int i = index + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+    // Sum of the weights at positions before count
+    private static int fenwickPrefix(int[] tree, int count) {
+        int sum = 0;
+        for (int i = count; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+    // Add delta to the sums that include the buffered key at position p, a plain loop over the rest of the buffer
+    private void addToPendingPrefix(int p, int delta) {
+        for (int k = p + 1; k <= pendingCount; k++) {
+            pendingPrefix[k] += delta;
+        }
+    }
+    // Position in keys of the n-th live key (counting from 1), found by descending the live-count Fenwick tree
+    private int nthLive(int n) {
+        int position = 0;
+        for (int step = Integer.highestOneBit(keys.length); step > 0; step >>= 1) {
+            if (position + step <= keys.length && liveFenwick[position + step] < n) {
+                position += step;
+                n -= liveFenwick[position];
+            }
+        }
+        return position;
+    }
+    // Build the Fenwick tree of the first n weights in O(n) by pushing each sum to its parent
+    private static void buildFenwick(int[] tree, int[] weights, int n) {
+        Arrays.fill(tree, 1, n + 1, 0);
+        for (int i = 1; i <= n; i++) {
+            tree[i] += weights[i - 1];
+            int parent = i + (i & -i);
+            if (parent <= n) tree[parent] += tree[i];
+        }
+    }
+    // Merge the buffer into the main part and drop the removed keys once enough has piled up
+    // Only inserts and removes call this, queries never pay for a rebuild
+    @SuppressWarnings("unchecked")
+    private void rebuildIfNeeded() {
+        if (pendingCount + removed < maxPending) {
+            return;
+        }
+        int n = size + pendingCount;
+        int[] newKeys = new int[n];
+        V[] newValues = (V[]) new Object[n];
+        int[] newWeights = new int[n];
+        int m = 0, p = 0;
+        for (int i = 0; i < keys.length; i++) {// Both parts are sorted, so this is a plain merge
+            if (values[i] == null) continue;
+            while (p < pendingCount && pendingKeys[p] < keys[i]) {
+                newKeys[m] = pendingKeys[p];
+                newValues[m] = pendingValues[p];
+                newWeights[m++] = pendingWeights[p++];
+            }
+            newKeys[m] = keys[i];
+            newValues[m] = values[i];
+            newWeights[m++] = weights[i];
+        }
+        while (p < pendingCount) {
+            newKeys[m] = pendingKeys[p];
+            newValues[m] = pendingValues[p];
+            newWeights[m++] = pendingWeights[p++];
+        }
+        keys = newKeys;
+        values = newValues;
+        weights = newWeights;
+        size = n;
+        removed = 0;
+        Arrays.fill(pendingValues, 0, pendingCount, null);
+        pendingCount = 0;
+        fenwick = new int[n + 1];
+        buildFenwick(fenwick, weights, n);
+        liveFenwick = new int[n + 1];
+        for (int i = 1; i <= n; i++) {// Every key is live, so each node counts the i & -i positions it covers
+            liveFenwick[i] = i & -i;
+        }
+        eytzinger = new int[n + 1];
+        rankOf = new int[n + 1];
+        fillEytzinger(0, 1);
+        maxPending = Math.max(MIN_PENDING, SQRT_FACTOR * (int) Math.sqrt(n));
+    }
+    // Place the sorted keys into the Eytzinger slots with an in-order walk of the implicit tree
+    private int fillEytzinger(int next, int k) {
+        if (k <= keys.length) {
+            next = fillEytzinger(next, 2 * k);
+            eytzinger[k] = keys[next];
+            rankOf[k] = next++;
+            next = fillEytzinger(next, 2 * k + 1);
+        }
+        return next;
+    }
+}
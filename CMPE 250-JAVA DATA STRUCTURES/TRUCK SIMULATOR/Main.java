@@ -1,17 +1,36 @@
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 class AVLTree<K extends Comparable<K>, V> {// AVL Tree implementation that can store key-value pairs
     private AvlNode<K, V> root;//
+    private int size;// Number of entries in the tree
+    private AvlNode<K, V>[] path;// Nodes from the root down to the current one, reused by insert, remove and adjust
+    private boolean[] wentLeft;// Whether the path went left below each of those nodes
     private static class AvlNode<K, V> {
         K key;// The key part of the pair
         V value;// The value part of the pair
         AvlNode<K, V> left; // Left child node
         AvlNode<K, V> right; // Right child node
         int height; // Height of the node in the tree
+        int weight; // Weight carried by this entry
+        int subtreeWeight; // Sum of the weights in this subtree
+        int flags; // Flag bits set on this entry
+        int subtreeFlags; // Union of the flag bits in this subtree
 
         AvlNode(K key, V value) {
             this(key, value, null, null);// Constructor for a new node without children
@@ -22,142 +41,391 @@ class AVLTree<K extends Comparable<K>, V> {// AVL Tree implementation that can s
             this.left = left;
             this.right = right;
             this.height = 0;// New nodes start with height 0
+            this.weight = 0;// New nodes start with no weight
+            this.subtreeWeight = 0;
+            this.flags = 0;// New nodes start with no flags
+            this.subtreeFlags = 0;
+        }
+    }
+
+    // Walks the entries in ascending key order with an explicit stack of the nodes still to visit
+    // The tree must not be restructured (insert/remove) while a cursor is in use
+    public static class Cursor<K, V> {
+        private final AvlNode<K, V>[] stack;
+        private int top;// Number of nodes on the stack
+        private AvlNode<K, V> current;// Last node returned by next()
+
+        private Cursor(AvlNode<K, V>[] stack) {
+            this.stack = stack;
+            this.top = 0;
+        }
+        // Check if there are more entries to visit
+        public boolean hasNext() {
+            return top > 0;
+        }
+        // Move to the next entry and return its value
+        public V next() {
+            if (top == 0) {
+                throw new RuntimeException("empty");
+            }
+            current = stack[--top];
+            // The next entries are on the left edge of the right subtree
+            AvlNode<K, V> node = current.right;
+            while (node != null) {
+                stack[top++] = node;
+                node = node.left;
+            }
+            return current.value;
+        }
+        // Get the key of the entry returned by the last call to next()
+        public K getKey() {
+            return current.key;
         }
     }
 
     public AVLTree() {
         root = null;// Create an empty AVL tree
     }
+    // Add a key-value pair to the tree
     public void insert(K key, V value) {
-        root = insert(key, value, root);// Add a key-value pair to the tree
+        ensurePathLength(height(root) + 2);
+        int depth = 0;
+        AvlNode<K, V> node = root;
+        while (node != null) {// Walk down to the place of the key, remembering the way
+            int compareResult = key.compareTo(node.key);
+            if (compareResult == 0) {
+                node.value = value; // Update existing key with new value
+                return;
+            }
+            path[depth] = node;
+            wentLeft[depth++] = compareResult < 0;
+            node = (compareResult < 0) ? node.left : node.right;
+        }
+        rebalancePath(depth, new AvlNode<>(key, value));// Hang the new node there and balance on the way up
+        size++;
     }
 
-    private AvlNode<K, V> insert(K key, V value, AvlNode<K, V> node) {    // Helper method to add a key-value pair and keep the tree balanced
-
-        if (node == null) {// If there's no node here, create a new one
-            return new AvlNode<>(key, value);
+    // Add count entries given in strictly ascending key order, new entries get the given weights and flags
+    // A key that is already there takes the new value and flags and has the weight added, as with adjust
+    // A small batch is inserted one by one, a large one is merged with the entries of the tree in O(n)
+    // and the tree is rebuilt perfectly balanced
+    public void insertSorted(K[] keys, V[] values, int[] weights, int[] flags, int count) {
+        int total = size + count;
+        if ((long) count * (32 - Integer.numberOfLeadingZeros(total)) < total) {// count log n is cheaper than a rebuild
+            for (int i = 0; i < count; i++) {
+                insert(keys[i], values[i]);
+                adjust(keys[i], weights[i], flags[i]);
+            }
+            return;
         }
-        int compareResult = key.compareTo(node.key);
-        if (compareResult < 0) {   // If the key is smaller, go to the left child
-            node.left = insert(key, value, node.left);// If the key is larger, go to the right child
-        } else if (compareResult > 0) {
-            node.right = insert(key, value, node.right);// If the key is the same, update the value
-        } else {
-            node.value = value; // Update existing key with new value
+        @SuppressWarnings("unchecked")
+        AvlNode<K, V>[] nodes = (AvlNode<K, V>[]) new AvlNode<?, ?>[total];
+        int n = 0;
+        Cursor<K, V> existing = new Cursor<>(newStack());
+        for (AvlNode<K, V> node = root; node != null; node = node.left) {// Start the cursor at the smallest key
+            existing.stack[existing.top++] = node;
         }
-
-        return balance(node);// Make sure the tree is still balanced
+        int next = 0;
+        while (existing.hasNext() || next < count) {// Merge the two sorted sequences
+            int cmp = !existing.hasNext() ? 1 : next == count ? -1 : existing.stack[existing.top - 1].key.compareTo(keys[next]);
+            if (cmp < 0) {
+                existing.next();
+                nodes[n++] = existing.current;
+            } else if (cmp > 0) {
+                AvlNode<K, V> created = new AvlNode<>(keys[next], values[next]);
+                created.weight = weights[next];
+                created.flags = flags[next++];
+                nodes[n++] = created;
+            } else {
+                existing.next();
+                existing.current.value = values[next]; // Update existing key with new value, like insert and adjust would
+                existing.current.weight += weights[next];
+                existing.current.flags = flags[next++];
+                nodes[n++] = existing.current;
+            }
+        }
+        root = build(nodes, 0, n - 1);
+        size = n;
+    }
+    // Link nodes[low..high] into a perfectly balanced subtree and return its root
+    private AvlNode<K, V> build(AvlNode<K, V>[] nodes, int low, int high) {
+        if (low > high) {
+            return null;
+        }
+        int middle = (low + high) >>> 1;
+        AvlNode<K, V> node = nodes[middle];
+        node.left = build(nodes, low, middle - 1);
+        node.right = build(nodes, middle + 1, high);
+        update(node);
+        return node;
+    }
+    // Get the number of entries in the tree
+    public int size() {
+        return size;
     }
 
+    // Remove a key from the tree
     public void remove(K key) {
-        root = remove(key, root);// Remove a key from the tree
-    }
-    private AvlNode<K, V> remove(K key, AvlNode<K, V> node) {
-        // Helper method to remove a key and keep the tree balanced
-        if (node == null) {return node;// If the key isn't found, do nothing
+        ensurePathLength(height(root) + 1);
+        int depth = 0;
+        AvlNode<K, V> node = root;
+        while (node != null) {
+            int compareResult = key.compareTo(node.key);
+            if (compareResult == 0) {
+                break;
+            }
+            path[depth] = node;
+            wentLeft[depth++] = compareResult < 0;
+            node = (compareResult < 0) ? node.left : node.right;
         }
-
-        int compareResult = key.compareTo(node.key);
-        if (compareResult < 0) {// If the key is smaller, go to the left child
-            node.left = remove(key, node.left);
-        } else if (compareResult > 0) {// If the key is larger, go to the right child
-            node.right = remove(key, node.right);
-        } else if (node.left != null && node.right != null) {
-            // If the node has two children, find the smallest key in the right subtree
-            AvlNode<K, V> minNode = findMin(node.right);
+        if (node == null) {// If the key isn't found, do nothing
+            return;
+        }
+        if (node.left != null && node.right != null) {
+            // If the node has two children, move the smallest entry of the right subtree here and remove that node instead
+            path[depth] = node;
+            wentLeft[depth++] = false;
+            AvlNode<K, V> minNode = node.right;
+            while (minNode.left != null) {
+                path[depth] = minNode;
+                wentLeft[depth++] = true;
+                minNode = minNode.left;
+            }
             node.key = minNode.key; // Replace current key with the smallest key
             node.value = minNode.value; // Replace current value with the smallest value
-            node.right = remove(node.key, node.right); // Remove the smallest node
-        } else {
-            node = (node.left != null) ? node.left : node.right;
-            // If the node has one or no children, replace it with its child
+            node.weight = minNode.weight; // Carry the weight of the smallest node along
+            node.flags = minNode.flags; // Carry the flags of the smallest node along
+            node = minNode;
         }
-
-        return balance(node);
+        // The node has one or no children now, replace it with its child
+        rebalancePath(depth, (node.left != null) ? node.left : node.right);
+        size--;
     }
-
-    private AvlNode<K, V> findMin(AvlNode<K, V> node) {
-        if (node == null) {// Find the node with the smallest key
-            return null;
-        } else if (node.left == null) {
-            return node;
+    // Link subtree under the last node of the path, then balance every node on the path from the bottom up
+    private void rebalancePath(int depth, AvlNode<K, V> subtree) {
+        for (int i = depth - 1; i >= 0; i--) {
+            AvlNode<K, V> parent = path[i];
+            if (wentLeft[i]) {
+                parent.left = subtree;
+            } else {
+                parent.right = subtree;
+            }
+            subtree = balance(parent);
+            path[i] = null;
+        }
+        root = subtree;
+    }
+    // Make sure the path arrays can hold a path of the given length
+    @SuppressWarnings("unchecked")
+    private void ensurePathLength(int length) {
+        if (path == null || path.length < length) {
+            path = (AvlNode<K, V>[]) new AvlNode<?, ?>[length * 2];
+            wentLeft = new boolean[length * 2];
         }
-        return findMin(node.left);
     }
 
     public V get(K key) {// Get the value associated with a key
-        return get(root, key);
-    }
-    // Helper method to find a value by key
-    private V get(AvlNode<K, V> node, K key) {
-        if (node == null) return null;
-        int cmp = key.compareTo(node.key);
-        if (cmp < 0) {
-            return get(node.left, key);// Look in the left subtree
-        } else if (cmp > 0) {
-            return get(node.right, key);// Look in the right subtree
-        } else {
-            return node.value;
+        AvlNode<K, V> node = root;
+        while (node != null) {
+            int cmp = key.compareTo(node.key);
+            if (cmp < 0) {
+                node = node.left;// Look in the left subtree
+            } else if (cmp > 0) {
+                node = node.right;// Look in the right subtree
+            } else {
+                return node.value;
+            }
         }
+        return null;
     }
 
     // Method to find the next lower key
     public K findNextLower(K key) {
-        return findNextLower(root, key, null);
-    }
-    // Helper method to find the next smaller key
-    private K findNextLower(AvlNode<K, V> node, K key, K bestFit) {
-        if (node == null) return bestFit;
-        int cmp = key.compareTo(node.key);
-        if (cmp > 0) {
-            bestFit = node.key;// Current key is a possible fit
-            return findNextLower(node.right, key, bestFit);// Look in the right subtree
-        } else {
-            return findNextLower(node.left, key, bestFit);// Look in the left subtree
+        K bestFit = null;
+        AvlNode<K, V> node = root;
+        while (node != null) {
+            if (key.compareTo(node.key) > 0) {
+                bestFit = node.key;// Current key is a possible fit
+                node = node.right;// Look in the right subtree for a closer one
+            } else {
+                node = node.left;// Look in the left subtree
+            }
         }
+        return bestFit;
     }
 
     // Method to find the next higher key
     public K higherKey(K key) {
-        return findNextHigher(root, key, null);
-    }
-    // Helper method to find the next larger key
-    private K findNextHigher(AvlNode<K, V> node, K key, K bestFit) {
-        if (node == null) return bestFit;
-        int cmp = key.compareTo(node.key);
-        if (cmp < 0) {
-            bestFit = node.key;
-            return findNextHigher(node.left, key, bestFit);
-        } else {
-            return findNextHigher(node.right, key, bestFit);
+        K bestFit = null;
+        AvlNode<K, V> node = root;
+        while (node != null) {
+            if (key.compareTo(node.key) < 0) {
+                bestFit = node.key;// Current key is a possible fit
+                node = node.left;// Look in the left subtree for a closer one
+            } else {
+                node = node.right;// Look in the right subtree
+            }
+        }
+        return bestFit;
+    }
+
+    // Cursor over the keys greater than (or equal to, if inclusive) the given key in ascending order
+    public Cursor<K, V> ascendingFrom(K key, boolean inclusive) {
+        Cursor<K, V> cursor = new Cursor<>(newStack());
+        AvlNode<K, V> node = root;
+        while (node != null) {// Stack every node on the search path that is in range
+            int cmp = key.compareTo(node.key);
+            if (cmp < 0 || (cmp == 0 && inclusive)) {
+                cursor.stack[cursor.top++] = node;
+                node = (cmp == 0) ? null : node.left;
+            } else {
+                node = node.right;
+            }
         }
+        return cursor;
+    }
+
+    // A stack deep enough for any root-to-leaf path of the tree
+    @SuppressWarnings("unchecked")
+    private AvlNode<K, V>[] newStack() {
+        return (AvlNode<K, V>[]) new AvlNode<?, ?>[height(root) + 1];
     }
 
     // Tail map method
     public MyHashMap<K, V> tailMap(K key, boolean inclusive) {
         MyHashMap<K, V> map = new MyHashMap<>();
-        tailMap(root, key, map, inclusive);
+        Cursor<K, V> cursor = ascendingFrom(key, inclusive);
+        while (cursor.hasNext()) {
+            V value = cursor.next();
+            map.put(cursor.getKey(), value);
+        }
         return map;
     }
+    // Add delta to the weight of a key and replace its flags, does nothing if the key is missing
+    public void adjust(K key, int weightDelta, int flags) {
+        ensurePathLength(height(root) + 1);
+        int depth = 0;
+        AvlNode<K, V> node = root;
+        while (node != null) {
+            int cmp = key.compareTo(node.key);
+            if (cmp == 0) {
+                break;
+            }
+            path[depth++] = node;
+            node = (cmp < 0) ? node.left : node.right;
+        }
+        if (node != null) {
+            node.weight += weightDelta;
+            node.flags = flags;
+            update(node);
+            while (depth > 0) {// Every node on the path holds the key in its subtree
+                update(path[--depth]);
+            }
+        }
+        Arrays.fill(path, 0, depth, null);
+    }
 
-    private void tailMap(AvlNode<K, V> node, K key, MyHashMap<K, V> map, boolean inclusive) {
-        if (node == null) return;
-        int cmp = key.compareTo(node.key);
-        if (cmp < 0) {
-            tailMap(node.left, key, map, inclusive);
-            map.put(node.key, node.value);
-            tailMap(node.right, key, map, inclusive);
-        } else if (cmp == 0 && inclusive) {
-            map.put(node.key, node.value);
-            tailMap(node.right, key, map, inclusive);
-        } else {
-            tailMap(node.right, key, map, inclusive);
+    // Find the value of the largest key less than or equal to the given key that has the flag set
+    public V floorWithFlag(K key, int flag) {
+        AvlNode<K, V> best = null;// Deepest node on the path that is in range and has the flag on itself or to its left
+        AvlNode<K, V> node = root;
+        while (node != null && (node.subtreeFlags & flag) != 0) {// Subtrees without the flag are skipped
+            if (key.compareTo(node.key) < 0) {
+                node = node.left;// Everything here and to the right is too large
+            } else {
+                if ((node.flags & flag) != 0 || (subtreeFlags(node.left) & flag) != 0) {
+                    best = node;
+                }
+                node = node.right;// Look for a larger fit on the right
+            }
+        }
+        if (best == null) return null;
+        if ((best.flags & flag) != 0) return best.value;
+        return maxWithFlag(best.left, flag).value;// The whole left subtree is in range
+    }
+    // Find the largest node with the flag set in a subtree
+    private AvlNode<K, V> maxWithFlag(AvlNode<K, V> node, int flag) {
+        while (node != null && (node.subtreeFlags & flag) != 0) {
+            if (node.right != null && (node.right.subtreeFlags & flag) != 0) {
+                node = node.right;
+            } else if ((node.flags & flag) != 0) {
+                return node;
+            } else {
+                node = node.left;
+            }
+        }
+        return null;
+    }
+
+    // Find the value of the smallest key greater than or equal to the given key that has the flag set
+    public V ceilingWithFlag(K key, int flag) {
+        AvlNode<K, V> best = null;// Deepest node on the path that is in range and has the flag on itself or to its right
+        AvlNode<K, V> node = root;
+        while (node != null && (node.subtreeFlags & flag) != 0) {// Subtrees without the flag are skipped
+            if (key.compareTo(node.key) > 0) {
+                node = node.right;// Everything here and to the left is too small
+            } else {
+                if ((node.flags & flag) != 0 || (subtreeFlags(node.right) & flag) != 0) {
+                    best = node;
+                }
+                node = node.left;// Look for a smaller fit on the left
+            }
+        }
+        if (best == null) return null;
+        if ((best.flags & flag) != 0) return best.value;
+        return minWithFlag(best.right, flag).value;// The whole right subtree is in range
+    }
+    // Find the smallest node with the flag set in a subtree
+    private AvlNode<K, V> minWithFlag(AvlNode<K, V> node, int flag) {
+        while (node != null && (node.subtreeFlags & flag) != 0) {
+            if (node.left != null && (node.left.subtreeFlags & flag) != 0) {
+                node = node.left;
+            } else if ((node.flags & flag) != 0) {
+                return node;
+            } else {
+                node = node.right;
+            }
+        }
+        return null;
+    }
+
+    // Sum of the weights of all keys greater than (or equal to, if inclusive) the given key
+    public int tailWeight(K key, boolean inclusive) {
+        int sum = 0;
+        AvlNode<K, V> node = root;
+        while (node != null) {
+            int cmp = key.compareTo(node.key);
+            if (cmp < 0) {// This node and its right subtree are all in the range
+                sum += node.weight + subtreeWeight(node.right);
+                node = node.left;
+            } else if (cmp > 0) {// This node and its left subtree are all out of the range
+                node = node.right;
+            } else {
+                if (inclusive) sum += node.weight;
+                sum += subtreeWeight(node.right);
+                break;
+            }
         }
+        return sum;
     }
     // Get the height of a node
     private int height(AvlNode<K, V> node) {
         return node == null ? -1 : node.height;
     }
+    // Get the total weight of a subtree
+    private int subtreeWeight(AvlNode<K, V> node) {
+        return node == null ? 0 : node.subtreeWeight;
+    }
+    // Get the union of the flags in a subtree
+    private int subtreeFlags(AvlNode<K, V> node) {
+        return node == null ? 0 : node.subtreeFlags;
+    }
+    // Recompute the height and the subtree weight of a node from its children
+    private void update(AvlNode<K, V> node) {
+        node.height = Math.max(height(node.left), height(node.right)) + 1;
+        node.subtreeWeight = subtreeWeight(node.left) + node.weight + subtreeWeight(node.right);
+        node.subtreeFlags = subtreeFlags(node.left) | node.flags | subtreeFlags(node.right);
+    }
     // Balance the tree at a given node
     private AvlNode<K, V> balance(AvlNode<K, V> node) {
         if (node == null) {
@@ -175,25 +443,27 @@ class AVLTree<K extends Comparable<K>, V> {// AVL Tree implementation that can s
             } else {node = doubleWithRightChild(node);
             }
         }
-        node.height = Math.max(height(node.left), height(node.right)) + 1;
-        return node;// Update the height of this node
+        update(node);
+        return node;// Update the height and the weight of this node
     }
     // Rotate the tree to the right with the left child
     private AvlNode<K, V> rotateWithLeftChild(AvlNode<K, V> k2) {
+        if (Stats.ENABLED) Stats.rotations++;
         AvlNode<K, V> k1 = k2.left;
         k2.left = k1.right;
         k1.right = k2;
-        k2.height = Math.max(height(k2.left), height(k2.right)) + 1;
-        k1.height = Math.max(height(k1.left), k2.height) + 1;
+        update(k2);
+        update(k1);
         return k1;
     }
     // Rotate the tree to the left with the right child
     private AvlNode<K, V> rotateWithRightChild(AvlNode<K, V> k1) {
+        if (Stats.ENABLED) Stats.rotations++;
         AvlNode<K, V> k2 = k1.right;
         k1.right = k2.left;
         k2.left = k1;
-        k1.height = Math.max(height(k1.left), height(k1.right)) + 1;
-        k2.height = Math.max(height(k2.right), k1.height) + 1;
+        update(k1);
+        update(k2);
         return k2;
     }
     // Perform a double rotation: first right, then left
@@ -208,30 +478,30 @@ class AVLTree<K extends Comparable<K>, V> {// AVL Tree implementation that can s
     }
 }
 
-// Queue implementation
+// Queue implementation backed by a ring buffer that doubles when it fills up
+// ParkingLot keeps its trucks in primitive arrays now, so only Benchmarks uses it, as the baseline for those arrays
 class MyQueue<T> {
-    private T[] theArray;// Array to store queue elements
+    private T[] theArray;// Array to store queue elements, its length is always a power of two
+    private int mask;// theArray.length - 1, used instead of % to wrap indexes
     private int front;
-    private int back;
     private int currentSize;
-    private static final int DEFAULT_CAPACITY = 10;
+    private static final int DEFAULT_CAPACITY = 16;
 
     // Constructor to initialize the queue with default capacity
+    @SuppressWarnings("unchecked")
     public MyQueue() {
         theArray = (T[]) new Object[DEFAULT_CAPACITY];
+        mask = DEFAULT_CAPACITY - 1;
         front = 0;
-        back = -1;
         currentSize = 0;
     }
-    // Constructor to initialize the queue with a specified capacity
 
     // Method to add an element to the back of the queue
     public void enqueue(T data) {
-        if (isFull()) {
-            throw new RuntimeException("full");
+        if (currentSize == theArray.length) {
+            grow();
         }
-        back = (back + 1) % theArray.length;
-        theArray[back] = data;
+        theArray[(front + currentSize) & mask] = data;
         currentSize++;
     }
     // Method to remove and return the front element of the queue
@@ -240,14 +510,11 @@ class MyQueue<T> {
             throw new RuntimeException("empty");
         }
         T frontItem = theArray[front];
-        front = (front + 1) % theArray.length;
+        theArray[front] = null;// Let the element be garbage collected
+        front = (front + 1) & mask;
         currentSize--;
         return frontItem;
     }
-    // Method to check if the queue is full
-    public boolean isFull() {
-        return currentSize == theArray.length;
-    }
     // Method to check if the queue is empty
     public boolean isEmpty() {
         return currentSize == 0;
@@ -256,6 +523,17 @@ class MyQueue<T> {
     public int size() {
         return currentSize;
     }
+    // Double the array and unwrap the elements so the front is at index 0
+    @SuppressWarnings("unchecked")
+    private void grow() {
+        T[] newArray = (T[]) new Object[theArray.length << 1];
+        int firstPart = theArray.length - front;
+        System.arraycopy(theArray, front, newArray, 0, firstPart);
+        System.arraycopy(theArray, 0, newArray, firstPart, front);
+        theArray = newArray;
+        mask = newArray.length - 1;
+        front = 0;
+    }
 }
 // A simple hashmap
 class MyHashMap<K, V> {
@@ -368,250 +646,1716 @@ class MyHashMap<K, V> {
         return valuesList;
     }
 }
+// A hashmap specialized for int keys, so keys are never boxed and there are no entry objects
+// It uses open addressing with linear probing, and deletes by shifting entries back instead of leaving tombstones
+class IntObjectMap<V> {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+    private int[] keys;
+    private V[] values;// A null value marks an empty slot, so null values can't be stored
+    private int mask;// Table length - 1, the length is always a power of two
+    private int size;
 
-// A class representing a Truck with an ID and capacity
-class Truck {
-    private final int id, capacity;
+    public IntObjectMap() {
+        allocate(INITIAL_CAPACITY);
+    }
+    // Spread the bits of the key so that close keys don't end up in the same run of slots
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+    // Find the slot holding the key, or the empty slot where it would go
+    private int slotOf(int key) {
+        int index = mix(key) & mask;
+        int probes = 1;
+        while (values[index] != null && keys[index] != key) {
+            index = (index + 1) & mask;
+            probes++;
+        }
+        if (Stats.ENABLED) {
+            Stats.mapLookups++;
+            Stats.mapProbes += probes;
+        }
+        return index;
+    }
 
-    public Truck(int id, int capacity) {
-        this.id = id;
-        this.capacity = capacity;
+    public void put(int key, V value) {// Add or update a key-value pair in the map
+        if (value == null) {
+            throw new RuntimeException("null value");
+        }
+        int index = slotOf(key);
+        if (values[index] == null) {
+            keys[index] = key;
+            size++;
+        }
+        values[index] = value;
+        if (size >= LOAD_FACTOR * values.length) {
+            rehash();
+        }
     }
 
-    public int getId() {
-        return id;
+    public V get(int key) {// Get the value associated with a key
+        return values[slotOf(key)];
     }
 
-    public int getCapacity() {
-        return capacity;
+    public boolean remove(int key) {// Remove a key-value pair from the map
+        int hole = slotOf(key);
+        if (values[hole] == null) {
+            return false;
+        }
+        // Pull later entries of the same run back into the hole if that brings them closer to their home slot
+        int index = hole;
+        while (true) {
+            index = (index + 1) & mask;
+            if (values[index] == null) {
+                break;
+            }
+            int home = mix(keys[index]) & mask;
+            if (((index - home) & mask) >= ((index - hole) & mask)) {
+                keys[hole] = keys[index];
+                values[hole] = values[index];
+                hole = index;
+            }
+        }
+        values[hole] = null;
+        size--;
+        return true;
+    }
+    // Make the array bigger and place every entry directly in its new slot
+    private void rehash() {
+        int[] oldKeys = keys;
+        V[] oldValues = values;
+        allocate(oldValues.length * 2);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int index = slotOf(oldKeys[i]);
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+    // Remove all entries from the map
+    public void clear() {
+        allocate(INITIAL_CAPACITY);
+        size = 0;
+    }
+    public int size() {
+        return size;
+    }
+    @SuppressWarnings("unchecked")
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = (V[]) new Object[capacity];
+        mask = capacity - 1;
     }
 }
+
 // A class representing a Parking Lot that can hold trucks
+// Trucks are not objects: each one is a slot in a ring of parallel arrays, in the order the trucks arrived
+// Trucks become ready and get loaded in that same order, so the ring holds the ready trucks first and then the waiting ones
 class ParkingLot {
+    private static final int MAX_INITIAL_SLOTS = 1 << 10;// Lots with a higher limit grow on demand
     private final int capacity;
     private final int truckLimit;
-    private final MyHashMap<Integer, Truck> truckIndex = new MyHashMap<>();
-    private MyQueue<Truck> waitingQueue = new MyQueue<>();
-    private MyQueue<Truck> readyQueue = new MyQueue<>();
-    private int totalTrucks;
+    private int[] truckIds;
+    private int[] truckCapacities;
+    private long[] capacityPrefix;// Sum of the capacities of every truck that arrived so far, up to and including this one
+    private int mask;// truckIds.length - 1, used instead of % to wrap slots
+    private int front;// Slot of the oldest truck
+    private int readySize;// Trucks from the front that are ready
+    private int totalTrucks;// Ready and waiting trucks
+    private long removedPrefix;// The same sum for every truck that was loaded or cleared
+    private int readyNegatives;// Ready trucks with a negative capacity, while there are none the sums only grow
     // Create a new parking lot with a certain capacity and truck limit
     public ParkingLot(int capacity, int truckLimit) {
         this.capacity = capacity;
         this.truckLimit = truckLimit;
         this.totalTrucks = 0;
+        int slots = 1;
+        while (slots < truckLimit && slots < MAX_INITIAL_SLOTS) {
+            slots <<= 1;
+        }
+        this.truckIds = new int[slots];
+        this.truckCapacities = new int[slots];
+        this.capacityPrefix = new long[slots];
+        this.mask = slots - 1;
     }
     public int getCapacity() {return capacity;
     }
     public boolean isNotFull() {return totalTrucks < truckLimit;
     }
-    // Add a truck to the waiting queue and index it
-    public void addTruck(Truck truck) {
+    public boolean hasWaitingTrucks() {return totalTrucks > readySize;
+    }
+    public boolean hasReadyTrucks() {return readySize > 0;
+    }
+    // Add a truck to the back of the waiting trucks
+    public void addTruck(int truckId, int truckCapacity) {
         if (isNotFull()) {
-            waitingQueue.enqueue(truck);
-            truckIndex.put(truck.getId(), truck);
+            if (totalTrucks == truckIds.length) {
+                grow();
+            }
+            int slot = (front + totalTrucks) & mask;
+            long previous = totalTrucks == 0 ? removedPrefix : capacityPrefix[(slot - 1) & mask];
+            truckIds[slot] = truckId;
+            truckCapacities[slot] = truckCapacity;
+            capacityPrefix[slot] = previous + truckCapacity;
             totalTrucks++;
         }
     }
-    // Move a truck from waiting to ready queue
-    public Truck moveTruckToReady() {
-        if (!waitingQueue.isEmpty()) {
-            Truck truck = waitingQueue.dequeue();
-            readyQueue.enqueue(truck);
-            return truck;
+    // Move the oldest waiting truck to ready, returns its slot or -1 if no truck is waiting
+    public int moveTruckToReady() {
+        if (!hasWaitingTrucks()) {
+            return -1;
         }
-        return null;
+        int slot = (front + readySize) & mask;
+        if (truckCapacities[slot] < 0) {
+            readyNegatives++;
+        }
+        readySize++;
+        return slot;
+    }
+    // The id of the truck in a slot
+    public int getTruckId(int slot) {
+        return truckIds[slot];
+    }
+    // Number of ready trucks, from the front, that a load of this size uses up
+    // Each truck takes min(its capacity, what is left), so the load stops at the first truck
+    // where the capacities so far reach the load; until then what is left is exactly load - sum
+    public int readyTrucksFor(int load) {
+        if (load <= 0) {
+            return 0;
+        }
+        long target = removedPrefix + load;
+        if (readyNegatives == 0) {// The sums only grow, so the first one to reach the load can be found by halving
+            int low = 0;
+            int high = readySize;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (capacityPrefix[(front + mid) & mask] >= target) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return low == readySize ? readySize : low + 1;
+        }
+        for (int i = 0; i < readySize; i++) {// A negative capacity can lower the sum, so look at every truck
+            if (capacityPrefix[(front + i) & mask] >= target) {
+                return i + 1;
+            }
+        }
+        return readySize;
+    }
+    // Sum of the capacities of the first count ready trucks
+    public long readyCapacity(int count) {
+        return count == 0 ? 0 : capacityPrefix[(front + count - 1) & mask] - removedPrefix;
     }
-    // Get the ready queue
-    public MyQueue<Truck> getReadyQueue() {
-        return readyQueue;
+    // Write the first count ready trucks as "id lot" pairs separated by " - "
+    public void writeReadyTrucks(int count, boolean separateFirst, ResultWriter output) throws IOException {
+        for (int i = 0; i < count; i++) {
+            int slot = (front + i) & mask;
+            if (separateFirst || i > 0) {
+                output.writeSeparator();
+            }
+            output.writeInt(truckIds[slot]);
+            output.writeSpace();
+            output.writeInt(truckCapacities[slot] != 0 ? capacity : -1);// A truck with no capacity has no lot
+        }
     }
-    // Decrease the total number of trucks
-    public void decreaseTotalTrucks() {
-        totalTrucks--;
+    // Remove the first count ready trucks from the lot in one step
+    public void removeReadyTrucks(int count) {
+        if (count < 0 || count > readySize) {
+            throw new RuntimeException("index");
+        }
+        if (count == 0) {
+            return;
+        }
+        if (readyNegatives > 0) {
+            for (int i = 0; i < count; i++) {
+                if (truckCapacities[(front + i) & mask] < 0) {
+                    readyNegatives--;
+                }
+            }
+        }
+        removedPrefix = capacityPrefix[(front + count - 1) & mask];
+        front = (front + count) & mask;
+        readySize -= count;
+        totalTrucks -= count;
     }
     // Get the total number of trucks
     public int getTotalTrucks() {return totalTrucks;
     }
-    // Remove all trucks from the parking lot
+    // Remove all trucks from the parking lot and release its arrays
+    // A deleted lot can stay in the tree as a tombstone until the next compaction, so it must not hold on to them
     public void clearAllTrucks() {
-        waitingQueue = new MyQueue<>();
-        readyQueue = new MyQueue<>();
-        truckIndex.clear();
+        truckIds = new int[1];
+        truckCapacities = new int[1];
+        capacityPrefix = new long[1];
+        mask = 0;
+        front = 0;
+        readySize = 0;
         totalTrucks = 0;
+        removedPrefix = 0;
+        readyNegatives = 0;
+    }
+    // Write the lot as capacity, truck limit, truck count, ready count and then an id and capacity per truck
+    public void writeSnapshot(SnapshotWriter snapshot) throws IOException {
+        snapshot.writeInt(capacity);
+        snapshot.writeInt(truckLimit);
+        snapshot.writeInt(totalTrucks);
+        snapshot.writeInt(readySize);
+        for (int i = 0; i < totalTrucks; i++) {
+            int slot = (front + i) & mask;
+            snapshot.writeInt(truckIds[slot]);
+            snapshot.writeInt(truckCapacities[slot]);
+        }
+    }
+    // Read a lot written by writeSnapshot
+    public static ParkingLot readSnapshot(SnapshotReader snapshot) {
+        ParkingLot parkingLot = new ParkingLot(snapshot.readInt(), snapshot.readInt());
+        int trucks = snapshot.readInt();
+        int ready = snapshot.readInt();
+        if (trucks < 0 || trucks > parkingLot.truckLimit || ready < 0 || ready > trucks) {
+            throw new RuntimeException("corrupt snapshot");
+        }
+        for (int i = 0; i < trucks; i++) {
+            parkingLot.addTruck(snapshot.readInt(), snapshot.readInt());
+        }
+        for (int i = 0; i < ready; i++) {
+            parkingLot.moveTruckToReady();
+        }
+        return parkingLot;
+    }
+    // Double the arrays and unwrap them so the front is at slot 0
+    private void grow() {
+        int length = truckIds.length;
+        int firstPart = length - front;
+        int[] ids = new int[length << 1];
+        int[] capacities = new int[length << 1];
+        long[] prefix = new long[length << 1];
+        System.arraycopy(truckIds, front, ids, 0, firstPart);
+        System.arraycopy(truckIds, 0, ids, firstPart, front);
+        System.arraycopy(truckCapacities, front, capacities, 0, firstPart);
+        System.arraycopy(truckCapacities, 0, capacities, firstPart, front);
+        System.arraycopy(capacityPrefix, front, prefix, 0, firstPart);
+        System.arraycopy(capacityPrefix, 0, prefix, firstPart, front);
+        truckIds = ids;
+        truckCapacities = capacities;
+        capacityPrefix = prefix;
+        mask = (length << 1) - 1;
+        front = 0;
     }
 }
 
 // A class to manage multiple parking lots and truck operations
 class FleetManager {
-    private final MyHashMap<Integer, ParkingLot> parkingLots = new MyHashMap<>();
+    // Flags kept on every lot in the tree so the searches can skip whole subtrees
+    private static final int NOT_FULL = 1;
+    private static final int HAS_WAITING = 2;
+    private static final int HAS_READY = 4;
+    private static final int MIN_TOMBSTONES_TO_COMPACT = 64;// Below this a rebuild isn't worth it
+    private final IntObjectMap<ParkingLot> parkingLots = new IntObjectMap<>();
     // Map of parking lots by capacity
     private AVLTree<Integer, ParkingLot> sortedParkingLots;
     // Tree to keep parking lots sorted by capacity
-    public FleetManager() {
+    private ResultWriter output;
+    // Where the results of the commands are written
+    private boolean loadStarted;// Whether the current load command has written a truck yet
+    private int[] pendingCapacities = new int[16];// New lots that are not in the tree yet
+    private int pendingCount;
+    public FleetManager(ResultWriter output) {
         this.sortedParkingLots = new AVLTree<>();
+        this.output = output;
     }// Create a new FleetManager with an empty AVL tree
+    // Send the results of the following commands somewhere else
+    public void setOutput(ResultWriter output) {
+        this.output = output;
+    }
 
     public void createParkingLot(int capacity, int truckLimit) {
         // Create a new parking lot with given capacity and truck limit
+        // Runs of new lots are collected and put into the tree together by the next other command
         if (parkingLots.get(capacity) == null) {
             ParkingLot parkingLot = new ParkingLot(capacity, truckLimit);
             parkingLots.put(capacity, parkingLot);
-            sortedParkingLots.insert(capacity, parkingLot);
+            if (pendingCount == pendingCapacities.length) {
+                pendingCapacities = Arrays.copyOf(pendingCapacities, pendingCount * 2);
+            }
+            pendingCapacities[pendingCount++] = capacity;
+        }
+    }
+    // Put the collected new lots into the tree, sorted so the tree can take them in one batch
+    private void flushPendingLots() {
+        if (pendingCount == 0) {
+            return;
+        }
+        if (pendingCount == 1) {
+            ParkingLot parkingLot = parkingLots.get(pendingCapacities[0]);
+            sortedParkingLots.insert(parkingLot.getCapacity(), parkingLot);
+            syncLot(parkingLot, 0);
+        } else {
+            Arrays.sort(pendingCapacities, 0, pendingCount);
+            Integer[] capacities = new Integer[pendingCount];
+            ParkingLot[] lots = new ParkingLot[pendingCount];
+            int[] flags = new int[pendingCount];
+            for (int i = 0; i < pendingCount; i++) {
+                capacities[i] = pendingCapacities[i];
+                lots[i] = parkingLots.get(pendingCapacities[i]);
+                flags[i] = flagsOf(lots[i]);
+            }
+            sortedParkingLots.insertSorted(capacities, lots, new int[pendingCount], flags, pendingCount);
         }
+        pendingCount = 0;
     }
     // Delete a parking lot by its capacity
+    // The lot stays in the tree as a tombstone with no trucks and no flags, so every search and count passes over it
+    // without the tree having to rebalance; the tombstones are purged together once there are enough of them
     public void deleteParkingLot(int capacity) {
+        flushPendingLots();
         ParkingLot parkingLot = parkingLots.get(capacity);
         if (parkingLot != null) {
+            sortedParkingLots.adjust(capacity, -parkingLot.getTotalTrucks(), 0);
             parkingLot.clearAllTrucks();
             parkingLots.remove(capacity);
-            sortedParkingLots.remove(capacity);
+            compactIfNeeded();
         }
     }
+    // Rebuild the tree from the live lots once tombstones make up half of it, so each delete pays O(1) for the rebuild
+    // A node is a tombstone when its lot is no longer the one in the map under its capacity
+    private void compactIfNeeded() {
+        int tombstones = sortedParkingLots.size() - parkingLots.size();
+        if (tombstones < MIN_TOMBSTONES_TO_COMPACT || tombstones * 2 < sortedParkingLots.size()) {
+            return;
+        }
+        int liveCount = parkingLots.size();
+        Integer[] capacities = new Integer[liveCount];
+        ParkingLot[] lots = new ParkingLot[liveCount];
+        int[] truckCounts = new int[liveCount];
+        int[] flags = new int[liveCount];
+        int n = 0;
+        AVLTree.Cursor<Integer, ParkingLot> cursor = sortedParkingLots.ascendingFrom(Integer.MIN_VALUE, true);
+        while (cursor.hasNext()) {
+            ParkingLot parkingLot = cursor.next();
+            if (parkingLots.get(parkingLot.getCapacity()) == parkingLot) {
+                capacities[n] = parkingLot.getCapacity();
+                lots[n] = parkingLot;
+                truckCounts[n] = parkingLot.getTotalTrucks();
+                flags[n++] = flagsOf(parkingLot);
+            }
+        }
+        sortedParkingLots = new AVLTree<>();
+        sortedParkingLots.insertSorted(capacities, lots, truckCounts, flags, n);
+    }
     // Add a truck to the best available parking lot
-    public String addTruck(int truckId, int capacity) {
-        ParkingLot parkingLot = sortedParkingLots.get(capacity);
-        if (parkingLot != null && parkingLot.isNotFull()) {
-            parkingLot.addTruck(new Truck(truckId, capacity));
-            return String.valueOf(parkingLot.getCapacity());
+    public void addTruck(int truckId, int capacity) throws IOException {
+        flushPendingLots();
+        // The lot with this capacity or else the next smaller one that is not full
+        ParkingLot suitableLot = sortedParkingLots.floorWithFlag(capacity, NOT_FULL);
+        if (suitableLot == null) {
+            output.writeInt(-1);
+        } else {
+            if (Stats.ENABLED && suitableLot.getCapacity() != capacity) Stats.addFallbacks++;
+            suitableLot.addTruck(truckId, capacity);
+            syncLot(suitableLot, 1);
+            output.writeInt(suitableLot.getCapacity());
         }
-        // Find the next smaller parking lot that can fit the truck
-        Integer bestFitKey = sortedParkingLots.findNextLower(capacity);
-        while (bestFitKey != null) {
-            ParkingLot suitableLot = sortedParkingLots.get(bestFitKey);
-            if (suitableLot.isNotFull()) {
-                suitableLot.addTruck(new Truck(truckId, capacity));
-                return String.valueOf(suitableLot.getCapacity());
+        output.newLine();
+    }
+    // Move a truck to ready from a specific lot or the next larger lot
+    public void readyTruck(int capacity) throws IOException {
+        flushPendingLots();
+        // The lot with this capacity or else the next larger one that has a waiting truck
+        ParkingLot parkingLot = sortedParkingLots.ceilingWithFlag(capacity, HAS_WAITING);
+        if (parkingLot == null) {
+            output.writeInt(-1);
+        } else {
+            if (Stats.ENABLED && parkingLot.getCapacity() != capacity) Stats.readyFallbacks++;
+            int movedTruck = parkingLot.moveTruckToReady();
+            syncLot(parkingLot, 0);
+            output.writeInt(parkingLot.getTruckId(movedTruck));
+            output.writeSpace();
+            output.writeInt(parkingLot.getCapacity());
+        }
+        output.newLine();
+    }
+    // Load trucks up to a certain load amount from a specific lot and larger lots
+    public void loadTrucks(int capacity, int loadAmount) throws IOException {
+        flushPendingLots();
+        int remainingLoad = loadAmount;
+        loadStarted = false;
+        // Start at the lot with this capacity and jump up through the larger lots that have ready trucks
+        ParkingLot parkingLot = sortedParkingLots.ceilingWithFlag(capacity, HAS_READY);
+        while (remainingLoad > 0 && parkingLot != null) {
+            remainingLoad = processLoad(parkingLot, remainingLoad);
+            if (parkingLot.getCapacity() == Integer.MAX_VALUE) {
+                break;
+            }
+            parkingLot = sortedParkingLots.ceilingWithFlag(parkingLot.getCapacity() + 1, HAS_READY);
+        }
+        if (!loadStarted) {// No truck was loaded
+            output.writeInt(-1);
+        }
+        output.newLine();
+    }// Helper method to load trucks from a parking lot
+    private int processLoad(ParkingLot parkingLot, int remainingLoad) throws IOException {
+        // The lot works out from its capacity sums how many ready trucks the load takes
+        int loaded = parkingLot.readyTrucksFor(remainingLoad);
+        if (loaded == 0) {
+            return remainingLoad;
+        }
+        if (Stats.ENABLED) Stats.loadLots++;
+        long used = parkingLot.readyCapacity(loaded);
+        parkingLot.writeReadyTrucks(loaded, loadStarted, output);
+        loadStarted = true;
+        parkingLot.removeReadyTrucks(loaded);// Take all the loaded trucks off the ready queue at once
+        // Keep the truck sums and flags in the tree in sync with the lot
+        syncLot(parkingLot, -loaded);
+        return used >= remainingLoad ? 0 : (int) (remainingLoad - used);
+    }
+    // Push the truck count change and the current state of a lot into the tree
+    private void syncLot(ParkingLot parkingLot, int truckDelta) {
+        sortedParkingLots.adjust(parkingLot.getCapacity(), truckDelta, flagsOf(parkingLot));
+    }
+    // The tree flags that describe the current state of a lot
+    private int flagsOf(ParkingLot parkingLot) {
+        int flags = 0;
+        if (parkingLot.isNotFull()) flags |= NOT_FULL;
+        if (parkingLot.hasWaitingTrucks()) flags |= HAS_WAITING;
+        if (parkingLot.hasReadyTrucks()) flags |= HAS_READY;
+        return flags;
+    }
+    // Save every lot and its trucks to a snapshot file, lots in ascending capacity order
+    // sequence is the number of journaled commands the fleet contains, restoreSnapshot gives it back
+    public void saveSnapshot(String path, long sequence) throws IOException {
+        flushPendingLots();
+        try (SnapshotWriter snapshot = new SnapshotWriter(path)) {
+            snapshot.writeInt((int) (sequence >>> 32));
+            snapshot.writeInt((int) sequence);
+            snapshot.writeInt(parkingLots.size());
+            AVLTree.Cursor<Integer, ParkingLot> lots = sortedParkingLots.ascendingFrom(Integer.MIN_VALUE, true);
+            while (lots.hasNext()) {
+                ParkingLot parkingLot = lots.next();
+                if (parkingLots.get(parkingLot.getCapacity()) == parkingLot) {// Tombstones are left out
+                    parkingLot.writeSnapshot(snapshot);
+                }
             }
-            bestFitKey = sortedParkingLots.findNextLower(bestFitKey);
+            snapshot.finish();
         }
-        return "-1";
+    }
+    // Replace the whole fleet with the one in a snapshot file
+    // The lots come sorted, so the tree is built from them in one pass instead of one insert each
+    public long restoreSnapshot(String path) throws IOException {
+        try (SnapshotReader snapshot = new SnapshotReader(path)) {
+            long sequence = (long) snapshot.readInt() << 32 | (snapshot.readInt() & 0xFFFFFFFFL);
+            int lotCount = snapshot.readInt();
+            if (lotCount < 0) {
+                throw new RuntimeException("corrupt snapshot");
+            }
+            Integer[] capacities = new Integer[lotCount];
+            ParkingLot[] lots = new ParkingLot[lotCount];
+            int[] truckCounts = new int[lotCount];
+            int[] flags = new int[lotCount];
+            for (int i = 0; i < lotCount; i++) {
+                lots[i] = ParkingLot.readSnapshot(snapshot);
+                capacities[i] = lots[i].getCapacity();
+                truckCounts[i] = lots[i].getTotalTrucks();
+                flags[i] = flagsOf(lots[i]);
+                if (i > 0 && capacities[i] <= capacities[i - 1]) {
+                    throw new RuntimeException("corrupt snapshot");
+                }
+            }
+            parkingLots.clear();
+            pendingCount = 0;
+            sortedParkingLots = new AVLTree<>();
+            for (int i = 0; i < lotCount; i++) {
+                parkingLots.put(capacities[i], lots[i]);
+            }
+            sortedParkingLots.insertSorted(capacities, lots, truckCounts, flags, lotCount);
+            return sequence;
+        }
+    }
+    // Count the number of trucks in lots with capacity greater than a certain value
+    public void countTrucks(int capacity) throws IOException {
+        flushPendingLots();
+        // The tree keeps the truck count of every lot as its weight, so this is a single descent
+        int count = sortedParkingLots.tailWeight(capacity, false);
+        output.writeInt(count);
+        output.newLine();
+    }
+}
+// A thread-safe variant of FleetManager for driving several command streams against one shared fleet
+// Commands that only touch the lot with the requested capacity run in parallel, guarded by the lock of its stripe
+// Commands that have to look at other lots, or add and remove lots, take the whole fleet exclusively,
+// so every command still behaves as if the commands ran one at a time in some order
+class ConcurrentFleetManager {
+    private static final int STRIPE_BITS = 6;// 64 stripes
+    private final ConcurrentSkipListMap<Integer, ParkingLot> sortedParkingLots = new ConcurrentSkipListMap<>();
+    // Parking lots sorted by capacity, safe to read from any thread
+    private final ReentrantReadWriteLock fleetLock = new ReentrantReadWriteLock();
+    // Shared by the single-lot fast paths, exclusive for everything else
+    private final ReentrantLock[] stripes = new ReentrantLock[1 << STRIPE_BITS];
+
+    public ConcurrentFleetManager() {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+    // The lock guarding the lot with this capacity
+    private ReentrantLock stripeOf(int capacity) {
+        return stripes[(capacity * 0x9E3779B9) >>> (32 - STRIPE_BITS)];
+    }
+
+    public void createParkingLot(int capacity, int truckLimit) {
+        fleetLock.writeLock().lock();
+        try {
+            sortedParkingLots.putIfAbsent(capacity, new ParkingLot(capacity, truckLimit));
+        } finally {
+            fleetLock.writeLock().unlock();
+        }
+    }
+    // Delete a parking lot by its capacity
+    public void deleteParkingLot(int capacity) {
+        fleetLock.writeLock().lock();
+        try {
+            ParkingLot parkingLot = sortedParkingLots.remove(capacity);
+            if (parkingLot != null) {
+                parkingLot.clearAllTrucks();
+            }
+        } finally {
+            fleetLock.writeLock().unlock();
+        }
+    }
+    // Add a truck to the best available parking lot, the result goes to the caller's output
+    public void addTruck(int truckId, int capacity, ResultWriter output) throws IOException {
+        int result = -1;
+        boolean done = false;
+        fleetLock.readLock().lock();
+        try {// Fast path: the lot with this capacity has room
+            ParkingLot parkingLot = sortedParkingLots.get(capacity);
+            if (parkingLot != null) {
+                ReentrantLock stripe = stripeOf(capacity);
+                stripe.lock();
+                try {
+                    if (parkingLot.isNotFull()) {
+                        parkingLot.addTruck(truckId, capacity);
+                        result = capacity;
+                        done = true;
+                    }
+                } finally {
+                    stripe.unlock();
+                }
+            }
+        } finally {
+            fleetLock.readLock().unlock();
+        }
+        if (!done) {
+            fleetLock.writeLock().lock();
+            try {// Look down from this capacity for a lot with room
+                for (ParkingLot parkingLot : sortedParkingLots.headMap(capacity, true).descendingMap().values()) {
+                    if (parkingLot.isNotFull()) {
+                        parkingLot.addTruck(truckId, capacity);
+                        result = parkingLot.getCapacity();
+                        break;
+                    }
+                }
+            } finally {
+                fleetLock.writeLock().unlock();
+            }
+        }
+        output.writeInt(result);
+        output.newLine();
     }
     // Move a truck to ready from a specific lot or the next larger lot
-    public String readyTruck(int capacity) {
-        ParkingLot parkingLot = sortedParkingLots.get(capacity);
-        if (parkingLot != null) {
-            Truck movedTruck = parkingLot.moveTruckToReady();
-            if (movedTruck != null) {
-                return movedTruck.getId() + " " + parkingLot.getCapacity();
+    public void readyTruck(int capacity, ResultWriter output) throws IOException {
+        int movedId = 0;
+        int lotCapacity = 0;
+        boolean moved = false;
+        fleetLock.readLock().lock();
+        try {// Fast path: the lot with this capacity has a waiting truck
+            ParkingLot parkingLot = sortedParkingLots.get(capacity);
+            if (parkingLot != null) {
+                ReentrantLock stripe = stripeOf(capacity);
+                stripe.lock();
+                try {
+                    int slot = parkingLot.moveTruckToReady();
+                    if (slot >= 0) {
+                        movedId = parkingLot.getTruckId(slot);
+                        lotCapacity = capacity;
+                        moved = true;
+                    }
+                } finally {
+                    stripe.unlock();
+                }
             }
-        }// If no truck moved, try the next larger parking lots
-        Integer nextCapacity = sortedParkingLots.higherKey(capacity);
-        while (nextCapacity != null) {
-            ParkingLot nextLot = sortedParkingLots.get(nextCapacity);
-            Truck movedTruck = nextLot.moveTruckToReady();
-            if (movedTruck != null) {
-                return movedTruck.getId() + " " + nextLot.getCapacity();
+        } finally {
+            fleetLock.readLock().unlock();
+        }
+        if (!moved) {
+            fleetLock.writeLock().lock();
+            try {// Look up from this capacity for a lot with a waiting truck
+                for (ParkingLot parkingLot : sortedParkingLots.tailMap(capacity, true).values()) {
+                    int slot = parkingLot.moveTruckToReady();
+                    if (slot >= 0) {
+                        movedId = parkingLot.getTruckId(slot);
+                        lotCapacity = parkingLot.getCapacity();
+                        moved = true;
+                        break;
+                    }
+                }
+            } finally {
+                fleetLock.writeLock().unlock();
             }
-            nextCapacity = sortedParkingLots.higherKey(nextCapacity);
         }
-        return "-1";
+        if (!moved) {
+            output.writeInt(-1);
+        } else {
+            output.writeInt(movedId);
+            output.writeSpace();
+            output.writeInt(lotCapacity);
+        }
+        output.newLine();
     }
     // Load trucks up to a certain load amount from a specific lot and larger lots
-    public String loadTrucks(int capacity, int loadAmount) {
-        StringBuilder result = new StringBuilder();
-        int remainingLoad = loadAmount;
-        ParkingLot parkingLot = sortedParkingLots.get(capacity);
-        if (parkingLot != null) {
-            remainingLoad = processLoad(parkingLot, remainingLoad, result);
-        }
-        if (remainingLoad > 0) { // If we still need to load, move to larger lots
-            Integer nextCapacity = sortedParkingLots.higherKey(capacity);
-            while (nextCapacity != null && remainingLoad > 0) {
-                ParkingLot nextLot = sortedParkingLots.get(nextCapacity);
-                // Load from this lot
-                remainingLoad = processLoad(nextLot, remainingLoad, result);
-                // Check next larger lot
-                nextCapacity = sortedParkingLots.higherKey(nextCapacity);
-            }
-        }// Remove the last " - " if any and return the result
-        return result.length() == 0 ? "-1" : result.substring(0, result.length() - 3);
-    }// Helper method to load trucks from a parking lot
-    private int processLoad(ParkingLot parkingLot, int remainingLoad, StringBuilder result) {
-        MyQueue<Truck> readyQueue = parkingLot.getReadyQueue();
-        int initialSize = readyQueue.size();
-        for (int i = 0; i < initialSize && remainingLoad > 0; i++) {// Take a truck from ready
-            Truck truck = readyQueue.dequeue();
-            int loadable = Math.min(truck.getCapacity(), remainingLoad);// Determine how much to load
-            remainingLoad -= loadable;// Reduce the remaining load
-            if (truck.getCapacity() != 0){
-            result.append(truck.getId()).append(" ").append(parkingLot.getCapacity()).append(" - ");}
-            else {
-                result.append(truck.getId()).append(" ").append("-1").append(" - ");
-            }
-            parkingLot.decreaseTotalTrucks();// Decrease the truck count
-        }
-        return remainingLoad;
-    }// Count the number of trucks in lots with capacity greater than a certain value
-    public String countTrucks(int capacity) {
-        MyHashMap<Integer, ParkingLot> tailMap = sortedParkingLots.tailMap(capacity, false);
-        int count = countTrucksGreaterThan(tailMap);
-        return String.valueOf(count);
-    }
-    // Helper method to count trucks from a set of parking lots
-    private int countTrucksGreaterThan(MyHashMap<Integer, ParkingLot> parkingLotsMap) {
+    public void loadTrucks(int capacity, int loadAmount, ResultWriter output) throws IOException {
+        int loaded = 0;
+        boolean done = false;
+        if (loadAmount > 0) {
+            fleetLock.readLock().lock();
+            try {// Fast path: the ready trucks of the lot with this capacity take the whole load
+                ParkingLot parkingLot = sortedParkingLots.get(capacity);
+                if (parkingLot != null) {
+                    ReentrantLock stripe = stripeOf(capacity);
+                    stripe.lock();
+                    try {
+                        if (coversLoad(parkingLot, loadAmount)) {
+                            processLoad(parkingLot, loadAmount, output, 0);
+                            done = true;
+                        }
+                    } finally {
+                        stripe.unlock();
+                    }
+                }
+            } finally {
+                fleetLock.readLock().unlock();
+            }
+        }
+        if (!done) {
+            fleetLock.writeLock().lock();
+            try {
+                int remainingLoad = loadAmount;
+                for (ParkingLot parkingLot : sortedParkingLots.tailMap(capacity, true).values()) {
+                    if (remainingLoad <= 0) {
+                        break;
+                    }
+                    int trucksBefore = parkingLot.getTotalTrucks();
+                    remainingLoad = processLoad(parkingLot, remainingLoad, output, loaded);
+                    loaded += trucksBefore - parkingLot.getTotalTrucks();
+                }
+            } finally {
+                fleetLock.writeLock().unlock();
+            }
+            if (loaded == 0) {// No truck was loaded
+                output.writeInt(-1);
+            }
+        }
+        output.newLine();
+    }
+    // Check if the ready trucks of a lot use up the whole load
+    private boolean coversLoad(ParkingLot parkingLot, int remainingLoad) {
+        int count = parkingLot.readyTrucksFor(remainingLoad);
+        return count > 0 && parkingLot.readyCapacity(count) >= remainingLoad;
+    }
+    // Helper method to load trucks from a parking lot, loadedBefore trucks were already written for this command
+    private int processLoad(ParkingLot parkingLot, int remainingLoad, ResultWriter output, int loadedBefore)
+            throws IOException {
+        int loaded = parkingLot.readyTrucksFor(remainingLoad);
+        long used = parkingLot.readyCapacity(loaded);
+        parkingLot.writeReadyTrucks(loaded, loadedBefore > 0, output);
+        parkingLot.removeReadyTrucks(loaded);
+        return used >= remainingLoad ? 0 : (int) (remainingLoad - used);
+    }
+    // Count the number of trucks in lots with capacity greater than a certain value
+    public void countTrucks(int capacity, ResultWriter output) throws IOException {
         int count = 0;
-        ArrayList<ParkingLot> values = parkingLotsMap.values();
-        // Get all parking lot
-        for (ParkingLot lot : values) {count += lot.getTotalTrucks();// Add up the trucks in each lot
+        fleetLock.readLock().lock();
+        try {// Hold every stripe at once so the counts are all from the same moment
+            for (ReentrantLock stripe : stripes) {
+                stripe.lock();
+            }
+            try {
+                for (ParkingLot parkingLot : sortedParkingLots.tailMap(capacity, false).values()) {
+                    count += parkingLot.getTotalTrucks();
+                }
+            } finally {
+                for (ReentrantLock stripe : stripes) {
+                    stripe.unlock();
+                }
+            }
+        } finally {
+            fleetLock.readLock().unlock();
+        }
+        output.writeInt(count);
+        output.newLine();
+    }
+}
+// Collects the output in a reusable byte buffer and writes it to the file in large chunks
+// Numbers are written digit by digit into the buffer, so no strings are created per result
+// In background mode full buffers are handed to a writer thread, so the file writes overlap with the work
+class ResultWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int BUFFER_COUNT = 4;// Buffers circulating between the two threads in background mode
+    private static final int MAX_INT_LENGTH = 11;// "-2147483648"
+    private static final byte[] SEPARATOR = " - ".getBytes();
+    private static final ByteBuffer END_OF_OUTPUT = ByteBuffer.allocate(0);// Tells the writer thread to stop
+
+    private final FileChannel channel;
+    private byte[] buffer;
+    private ByteBuffer byteBuffer;
+    private int position;// Next free byte in the buffer
+    private final SpscQueue<ByteBuffer> filledBuffers;// To the writer thread, null if writing on the calling thread
+    private final SpscQueue<ByteBuffer> emptyBuffers;// Back from the writer thread
+    private final Thread writerThread;
+    private volatile IOException writeError;// Set by the writer thread if a write fails
+
+    public ResultWriter(String path) throws IOException {
+        this(path, false);
+    }
+    // A writer that throws everything away, for commands whose results were already written once
+    public static ResultWriter discarding() {
+        return new ResultWriter();
+    }
+    private ResultWriter() {
+        channel = null;
+        byteBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        buffer = byteBuffer.array();
+        filledBuffers = null;
+        emptyBuffers = null;
+        writerThread = null;
+    }
+    public ResultWriter(String path, boolean background) throws IOException {
+        channel = FileChannel.open(Paths.get(path), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        byteBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        buffer = byteBuffer.array();
+        if (background) {
+            filledBuffers = new SpscQueue<>(BUFFER_COUNT);
+            emptyBuffers = new SpscQueue<>(BUFFER_COUNT);
+            for (int i = 1; i < BUFFER_COUNT; i++) {
+                emptyBuffers.put(ByteBuffer.allocate(BUFFER_SIZE));
+            }
+            writerThread = new Thread(this::writeInBackground, "result-writer");
+            writerThread.setDaemon(true);
+            writerThread.start();
+        } else {
+            filledBuffers = null;
+            emptyBuffers = null;
+            writerThread = null;
+        }
+    }
+    // Write an int in decimal
+    public void writeInt(int value) throws IOException {
+        ensureRoom(MAX_INT_LENGTH);
+        if (value < 0) {
+            buffer[position++] = '-';
+        } else {
+            value = -value;// Work with negative numbers so MIN_VALUE fits
+        }
+        int start = position;
+        do {// Digits come out last first
+            buffer[position++] = (byte) ('0' - value % 10);
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = position - 1; i < j; i++, j--) {// Put the digits in order
+            byte digit = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = digit;
+        }
+    }
+    // Write a single space
+    public void writeSpace() throws IOException {
+        ensureRoom(1);
+        buffer[position++] = ' ';
+    }
+    // Write the " - " that separates loaded trucks
+    public void writeSeparator() throws IOException {
+        ensureRoom(SEPARATOR.length);
+        System.arraycopy(SEPARATOR, 0, buffer, position, SEPARATOR.length);
+        position += SEPARATOR.length;
+    }
+    // End the current line
+    public void newLine() throws IOException {
+        ensureRoom(1);
+        buffer[position++] = '\n';
+    }
+    // Write out the buffered bytes, or hand them to the writer thread in background mode
+    public void flush() throws IOException {
+        checkWriteError();
+        if (position == 0) {
+            return;
+        }
+        byteBuffer.clear().limit(position);
+        if (filledBuffers == null) {
+            if (channel != null) {
+                writeFully(byteBuffer);
+            }
+        } else {
+            filledBuffers.put(byteBuffer);
+            byteBuffer = emptyBuffers.take();
+            buffer = byteBuffer.array();
+        }
+        position = 0;
+    }
+    // Body of the writer thread, writes the buffers in the order they were filled
+    private void writeInBackground() {
+        while (true) {
+            ByteBuffer filled = filledBuffers.take();
+            if (filled == END_OF_OUTPUT) {
+                return;
+            }
+            try {
+                if (writeError == null) {// After a failure the buffers are only recycled
+                    writeFully(filled);
+                }
+            } catch (IOException e) {
+                writeError = e;
+            }
+            emptyBuffers.put(filled);
+        }
+    }
+    private void writeFully(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+    private void checkWriteError() throws IOException {
+        if (writeError != null) {
+            throw writeError;
+        }
+    }
+    // Flush first if the buffer has less than count free bytes
+    private void ensureRoom(int count) throws IOException {
+        if (BUFFER_SIZE - position < count) {
+            flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            if (writerThread != null) {// Wait until everything handed off is written
+                filledBuffers.put(END_OF_OUTPUT);
+                writerThread.join();
+                checkWriteError();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while writing", e);
+        } finally {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+}
+// A bounded queue that hands items from exactly one producer thread to exactly one consumer thread
+// Each side only writes its own index, so no locks are needed
+class SpscQueue<T> {
+    private final T[] theArray;// Its length is always a power of two
+    private final int mask;
+    private volatile long head;// Next slot to take from, written only by the consumer
+    private volatile long tail;// Next slot to put into, written only by the producer
+
+    @SuppressWarnings("unchecked")
+    public SpscQueue(int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        theArray = (T[]) new Object[size];
+        mask = size - 1;
+    }
+    // Add an item, waiting while the queue is full
+    public void put(T item) {
+        long t = tail;
+        int spins = 0;
+        while (t - head == theArray.length) {
+            spins = idle(spins);
         }
-        return count;
+        theArray[(int) t & mask] = item;
+        tail = t + 1;// Publishes the item to the consumer
+    }
+    // Remove an item, waiting while the queue is empty
+    public T take() {
+        long h = head;
+        int spins = 0;
+        while (h == tail) {
+            spins = idle(spins);
+        }
+        T item = theArray[(int) h & mask];
+        theArray[(int) h & mask] = null;
+        head = h + 1;// Gives the slot back to the producer
+        return item;
+    }
+    // Whether a take would wait right now, only meaningful on the consumer thread
+    public boolean isEmpty() {
+        return head == tail;
+    }
+    // Spin briefly, then yield, then sleep in short naps while waiting for the other thread
+    private static int idle(int spins) {
+        if (spins < 100) {
+            Thread.onSpinWait();
+        } else if (spins < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(10_000);
+        }
+        return spins + 1;
+    }
+}
+// A block of parsed commands passed from the parser thread to the executor
+class CommandBatch {
+    public static final int CAPACITY = 4096;
+    final int[] commands = new int[CAPACITY];
+    final int[] firsts = new int[CAPACITY];
+    final int[] seconds = new int[CAPACITY];
+    int size;// Number of commands in the batch
+    boolean last;// No batches follow this one
+    IOException error;// Set if parsing failed after the commands in this batch
+}
+// Reads commands straight from the bytes of the input file
+// The command is recognized from its bytes and the numbers are parsed in place, so no strings are created per line
+class CommandReader implements Closeable {
+    public static final int END = -1;// No more commands
+    public static final int CREATE_PARKING_LOT = 0;
+    public static final int DELETE_PARKING_LOT = 1;
+    public static final int ADD_TRUCK = 2;
+    public static final int READY = 3;
+    public static final int LOAD = 4;
+    public static final int COUNT = 5;
+    private static final byte[][] NAMES = {// Indexed by the command codes above
+            "create_parking_lot".getBytes(), "delete_parking_lot".getBytes(), "add_truck".getBytes(),
+            "ready".getBytes(), "load".getBytes(), "count".getBytes()};
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int MAX_COMMAND_LENGTH = 128;// Every valid command line fits in this many bytes
+
+    private final FileChannel channel;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+    private int position;// Next byte to read
+    private int limit;// End of the valid bytes in the buffer
+    private boolean endOfFile;
+    private int first, second;// Arguments of the last command
+
+    public CommandReader(String path) throws IOException {
+        channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+    }
+    // Read the next command and its arguments, lines with unknown commands are skipped
+    public int next() throws IOException {
+        while (true) {
+            ensureAvailable(MAX_COMMAND_LENGTH);
+            if (position >= limit) {
+                return END;
+            }
+            int start = position;
+            while (position < limit && buffer[position] > ' ') {// Find the end of the command name
+                position++;
+            }
+            int command = commandOf(start, position - start);
+            switch (command) {
+                case CREATE_PARKING_LOT:
+                case ADD_TRUCK:
+                case LOAD:
+                    first = parseInt();
+                    second = parseInt();
+                    break;
+                case DELETE_PARKING_LOT:
+                case READY:
+                case COUNT:
+                    first = parseInt();
+                    break;
+                default:
+                    break;
+            }
+            skipLine();
+            if (command != END) {
+                return command;
+            }
+        }
+    }
+    // Get the first argument of the last command
+    public int getFirst() {
+        return first;
+    }
+    // Get the second argument of the last command
+    public int getSecond() {
+        return second;
+    }
+    // Match the command name against the known names, END if it is none of them
+    private int commandOf(int start, int length) {
+        for (int command = 0; command < NAMES.length; command++) {
+            byte[] name = NAMES[command];
+            if (name.length == length && name[0] == buffer[start] && name[length - 1] == buffer[start + length - 1]
+                    && Arrays.equals(buffer, start, start + length, name, 0, length)) {
+                return command;
+            }
+        }
+        return END;
+    }
+    // Parse the next space separated integer on the line
+    private int parseInt() {
+        while (position < limit && buffer[position] == ' ') {
+            position++;
+        }
+        boolean negative = position < limit && buffer[position] == '-';
+        if (negative) {
+            position++;
+        }
+        int value = 0;
+        while (position < limit && buffer[position] >= '0' && buffer[position] <= '9') {
+            value = value * 10 - (buffer[position++] - '0');// Collect as a negative number so MIN_VALUE fits
+        }
+        return negative ? value : -value;
+    }
+    // Move past the end of the current line
+    private void skipLine() throws IOException {
+        while (true) {
+            while (position < limit) {
+                if (buffer[position++] == '\n') {
+                    return;
+                }
+            }
+            if (endOfFile) {
+                return;
+            }
+            ensureAvailable(1);
+        }
+    }
+    // Make sure at least count bytes are in the buffer unless the file ends first
+    private void ensureAvailable(int count) throws IOException {
+        if (limit - position >= count || endOfFile) {
+            return;
+        }
+        System.arraycopy(buffer, position, buffer, 0, limit - position);// Keep the unread bytes
+        limit -= position;
+        position = 0;
+        while (limit < count && !endOfFile) {
+            byteBuffer.clear().position(limit);
+            int read = channel.read(byteBuffer);
+            if (read < 0) {
+                endOfFile = true;
+            } else {
+                limit += read;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
     }
 }
+
+// Writes a snapshot file: a header with a magic number and the number of ints that follow, then the ints
+// The file is written next to its final place and moved over it only when complete, so a crash never leaves half a snapshot
+class SnapshotWriter implements Closeable {
+    public static final int MAGIC = 0x464C5432;// "FLT2"
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path path;
+    private final Path partialPath;
+    private final FileChannel channel;
+    private final ByteBuffer byteBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private int length;// Ints written after the header
+    private boolean finished;
+
+    public SnapshotWriter(String path) throws IOException {
+        this.path = Paths.get(path);
+        this.partialPath = Paths.get(path + ".partial");
+        channel = FileChannel.open(partialPath, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        byteBuffer.putInt(MAGIC).putInt(0);// The length is filled in by finish
+    }
+    public void writeInt(int value) throws IOException {
+        if (!byteBuffer.hasRemaining()) {
+            flush();
+        }
+        byteBuffer.putInt(value);
+        length++;
+    }
+    // Write the length into the header, force the file to disk and move it into place
+    public void finish() throws IOException {
+        flush();
+        ByteBuffer header = ByteBuffer.allocate(4).putInt(length);
+        header.flip();
+        channel.write(header, 4);
+        channel.force(false);
+        channel.close();
+        Files.move(partialPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        finished = true;
+    }
+    private void flush() throws IOException {
+        byteBuffer.flip();
+        while (byteBuffer.hasRemaining()) {
+            channel.write(byteBuffer);
+        }
+        byteBuffer.clear();
+    }
+    // Without finish the snapshot is thrown away
+    @Override
+    public void close() throws IOException {
+        if (!finished) {
+            channel.close();
+            Files.deleteIfExists(partialPath);
+        }
+    }
+}
+// Reads a snapshot file written by SnapshotWriter with one sequential read of the whole file
+class SnapshotReader implements Closeable {
+    private final FileChannel channel;
+    private final IntBuffer ints;
+
+    public SnapshotReader(String path) throws IOException {
+        channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        long size = channel.size();
+        if (size < 8 || size > Integer.MAX_VALUE || size % 4 != 0) {
+            throw new RuntimeException("corrupt snapshot");
+        }
+        ByteBuffer byteBuffer = ByteBuffer.allocate((int) size);
+        while (byteBuffer.hasRemaining() && channel.read(byteBuffer) >= 0) {
+        }
+        byteBuffer.flip();
+        if (byteBuffer.remaining() != size || byteBuffer.getInt() != SnapshotWriter.MAGIC
+                || byteBuffer.getInt() != (size - 8) / 4) {// Not a snapshot, or cut short
+            throw new RuntimeException("corrupt snapshot");
+        }
+        ints = byteBuffer.asIntBuffer();
+    }
+    public int readInt() {
+        if (!ints.hasRemaining()) {
+            throw new RuntimeException("corrupt snapshot");
+        }
+        return ints.get();
+    }
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
+
+// A write-ahead log of the commands that change the fleet, kept in a memory-mapped file
+// Each record is a tag with the command code, its two arguments and a spare int, the tag is written last
+// so a record cut short by a crash is not taken as valid. The file is forced to disk for a group of records
+// at a time: after every groupSize records, or once groupMillis have passed since the last force. The time is only
+// checked when a record is appended, so a caller that stops appending for a while forces the records itself
+// The file is never shrunk, so it is never cut while mapped (Windows refuses that): it keeps its zero-filled tail
+// and the first slot with a zero tag marks the end of the records
+// Record n of the file is the command with sequence number base + n, where base comes from the header; a snapshot
+// remembers how many commands it contains, so recovery replays only the records after it
+class CommandJournal implements Closeable {
+    private static final int MAGIC = 0x464A4E31;// "FJN1"
+    private static final int RECORD_TAG = 0x4A520000;// Or'ed with the command code, an empty slot reads as 0
+    private static final int HEADER_SIZE = 16;// Magic, base sequence as two ints, spare
+    private static final int RECORD_SIZE = 16;
+    private static final int CHUNK_SIZE = 1 << 24;// The file is mapped and grown 16 MiB at a time
+
+    private final FileChannel channel;
+    private final int groupSize;
+    private final long groupNanos;
+    private MappedByteBuffer mapped;
+    private long mappedStart;// File offset of the mapped chunk
+    private long end;// File offset after the last record
+    private long base;// Sequence number of the first record
+    private long forcedEnd;// File offset up to which the records are on disk
+    private int unforced;// Records appended since the last force
+    private long lastForce;
+
+    public CommandJournal(String path, int groupSize, int groupMillis) throws IOException {
+        channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE);
+        this.groupSize = groupSize;
+        this.groupNanos = groupMillis * 1_000_000L;
+        if (channel.size() < HEADER_SIZE) {// New journal
+            writeHeader(0);
+        } else {
+            map(0);
+            if (mapped.getInt(0) != MAGIC) {
+                throw new RuntimeException("not a journal");
+            }
+            base = (long) mapped.getInt(4) << 32 | (mapped.getInt(8) & 0xFFFFFFFFL);
+            end = HEADER_SIZE;
+            while (end + RECORD_SIZE <= channel.size()) {// Find the end of the valid records
+                if (end + RECORD_SIZE > mappedStart + mapped.capacity()) {
+                    map(end);
+                }
+                int tag = mapped.getInt((int) (end - mappedStart));
+                if ((tag & ~0xFF) != RECORD_TAG) {
+                    break;
+                }
+                end += RECORD_SIZE;
+            }
+            clearRecords(end);// Records after a torn one, or left over from a reset cut short, are not valid
+        }
+        forcedEnd = end;
+        lastForce = System.nanoTime();
+    }
+    // Sequence number the next appended command will get
+    public long nextSequence() {
+        return base + (end - HEADER_SIZE) / RECORD_SIZE;
+    }
+    // Apply the records with a sequence number of at least from to the fleet, returns the next sequence number
+    public long replay(FleetManager fleetManager, long from) throws IOException {
+        if (from < base) {
+            throw new RuntimeException("journal starts after the snapshot");
+        }
+        if (from > nextSequence()) {
+            throw new RuntimeException("journal ends before the snapshot");
+        }
+        for (long offset = HEADER_SIZE + (from - base) * RECORD_SIZE; offset < end; offset += RECORD_SIZE) {
+            if (offset + RECORD_SIZE > mappedStart + mapped.capacity() || offset < mappedStart) {
+                map(offset);
+            }
+            int position = (int) (offset - mappedStart);
+            Main.execute(fleetManager, mapped.getInt(position) & 0xFF, mapped.getInt(position + 4),
+                    mapped.getInt(position + 8));
+        }
+        return nextSequence();
+    }
+    // Add a command to the end of the journal, forcing the group to disk when it is due
+    public void append(int command, int first, int second) throws IOException {
+        if (end + RECORD_SIZE > mappedStart + mapped.capacity()) {
+            force();
+            map(end);
+        }
+        int position = (int) (end - mappedStart);
+        mapped.putInt(position + 4, first);
+        mapped.putInt(position + 8, second);
+        mapped.putInt(position, RECORD_TAG | command);
+        end += RECORD_SIZE;
+        if (++unforced >= groupSize || System.nanoTime() - lastForce >= groupNanos) {
+            force();
+        }
+    }
+    // Drop every record and start again at a sequence number, used once a snapshot holds all of them
+    // The first record is cleared before the header changes, so the old records are never read under the new base
+    public void reset(long sequence) throws IOException {
+        force();
+        if (mappedStart != 0) {
+            map(0);
+        }
+        if (end > HEADER_SIZE) {
+            for (int i = 0; i < RECORD_SIZE; i += 4) {
+                mapped.putInt(HEADER_SIZE + i, 0);// The tag first, so a half-cleared record is already empty
+            }
+            mapped.force(HEADER_SIZE, RECORD_SIZE);
+        }
+        writeHeader(sequence);
+        clearRecords(HEADER_SIZE + RECORD_SIZE);
+    }
+    // Write the records appended since the last force to disk
+    public void force() {
+        if (end > forcedEnd) {
+            int from = (int) (Math.max(forcedEnd, mappedStart) - mappedStart);
+            mapped.force(from, (int) (end - mappedStart) - from);
+            forcedEnd = end;
+        }
+        unforced = 0;
+        lastForce = System.nanoTime();
+    }
+    // Start an empty journal in the file, with records beginning at the given sequence number
+    // The first record slot must already read as empty
+    private void writeHeader(long sequence) throws IOException {
+        if (mapped == null || mappedStart != 0) {
+            map(0);// Mapping grows a new file with zeros, and a zero tag ends the records
+        }
+        mapped.putInt(0, MAGIC);
+        mapped.putInt(4, (int) (sequence >>> 32));
+        mapped.putInt(8, (int) sequence);
+        mapped.putInt(12, 0);
+        mapped.force(0, HEADER_SIZE);
+        base = sequence;
+        end = HEADER_SIZE;
+        forcedEnd = end;
+    }
+    // Zero the records from a file offset up to the first empty slot and force them, then map the chunk at end again
+    private void clearRecords(long from) throws IOException {
+        boolean cleared = false;
+        for (long offset = from; offset + RECORD_SIZE <= channel.size(); offset += RECORD_SIZE) {
+            if (offset + RECORD_SIZE > mappedStart + mapped.capacity() || offset < mappedStart) {
+                if (cleared) {
+                    mapped.force();
+                }
+                map(offset);
+                cleared = false;
+            }
+            int position = (int) (offset - mappedStart);
+            if (mapped.getInt(position) == 0) {
+                break;
+            }
+            mapped.putInt(position, 0);// The tag first, so a half-cleared record is already empty
+            mapped.putInt(position + 4, 0);
+            mapped.putInt(position + 8, 0);
+            mapped.putInt(position + 12, 0);
+            cleared = true;
+        }
+        if (cleared) {
+            mapped.force();
+        }
+        if (end < mappedStart || end + RECORD_SIZE > mappedStart + mapped.capacity()) {
+            map(end);
+        }
+    }
+    // Map the chunk starting at a file offset, the file grows to cover it
+    private void map(long start) throws IOException {
+        mappedStart = start;
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, start, CHUNK_SIZE);
+    }
+    // Force the last records, the zero tail stays in the file
+    @Override
+    public void close() throws IOException {
+        try {
+            force();
+        } finally {
+            channel.close();
+        }
+    }
+}
+
+// A latency histogram in the style of HdrHistogram: values are counted in buckets that are exact below 32
+// and about 3% wide above that, so any value up to Long.MAX_VALUE fits in a fixed array of counts
+class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;// Buckets per power of two
+    private final long[] counts = new long[(64 - SUB_BITS) * SUB_COUNT];
+    private long totalCount;
+    private long totalValue;
+    private long maxValue;
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[indexOf(value)]++;
+        totalCount++;
+        totalValue += value;
+        if (value > maxValue) {
+            maxValue = value;
+        }
+    }
+    // Values below SUB_COUNT get a bucket each, above that the top SUB_BITS + 1 bits choose the bucket
+    private static int indexOf(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        return (highestBit - SUB_BITS + 1) * SUB_COUNT + (int) (value >>> (highestBit - SUB_BITS)) - SUB_COUNT;
+    }
+    // The largest value that falls in a bucket
+    private static long highestValueOf(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_COUNT - 1;
+        long lowest = (long) (SUB_COUNT + index % SUB_COUNT) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+    // The value at or below which the given percentage of the recorded values are
+    public long percentile(double percent) {
+        long target = Math.max(1, (long) Math.ceil(percent / 100 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(highestValueOf(i), maxValue);
+            }
+        }
+        return maxValue;
+    }
+    public long getTotalCount() {
+        return totalCount;
+    }
+    public long getMean() {
+        return totalCount == 0 ? 0 : totalValue / totalCount;
+    }
+    public long getMaxValue() {
+        return maxValue;
+    }
+}
+// Latencies of the commands and counters from inside the data structures, switched on with -Dstats=true
+// ENABLED is a constant, so when it is off the JIT removes every check of it along with the recording
+// Only the single-threaded FleetManager path records; the report can be printed from any thread
+// and then shows values that are at most a moment old
+class Stats {
+    public static final boolean ENABLED = Boolean.getBoolean("stats");
+    private static final String[] COMMAND_NAMES = {// Indexed by the CommandReader codes
+            "create_parking_lot", "delete_parking_lot", "add_truck", "ready", "load", "count"};
+    private static final LatencyHistogram[] latencies = new LatencyHistogram[COMMAND_NAMES.length];
+    static long mapLookups;// Slot searches in IntObjectMap
+    static long mapProbes;// Slots those searches looked at
+    static long rotations;// Single rotations in AVLTree, a double rotation counts as two
+    static long addFallbacks;// add_truck commands that went to a smaller lot than asked for
+    static long readyFallbacks;// ready commands that went to a larger lot than asked for
+    static long loadLots;// Lots that load commands took trucks from
+
+    static {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+    public static void recordCommand(int command, long nanos) {
+        latencies[command].record(nanos);
+    }
+    // Print the report to standard error every interval until the program ends
+    public static void reportEvery(long intervalMillis) {
+        Thread reporter = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(intervalMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                System.err.print(report());
+            }
+        }, "stats-reporter");
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+    // One line per command type with its latency percentiles in nanoseconds, then the counters
+    public static String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-20s %10s %8s %8s %8s %8s %8s %10s%n",
+                "command", "count", "mean", "p50", "p90", "p99", "p99.9", "max"));
+        for (int i = 0; i < latencies.length; i++) {
+            LatencyHistogram histogram = latencies[i];
+            report.append(String.format("%-20s %10d %8d %8d %8d %8d %8d %10d%n", COMMAND_NAMES[i],
+                    histogram.getTotalCount(), histogram.getMean(), histogram.percentile(50),
+                    histogram.percentile(90), histogram.percentile(99), histogram.percentile(99.9),
+                    histogram.getMaxValue()));
+        }
+        report.append(String.format("map lookups %d, probes %d, avl rotations %d%n", mapLookups, mapProbes, rotations));
+        report.append(String.format("add_truck fallbacks %d, ready fallbacks %d, lots loaded from %d%n",
+                addFallbacks, readyFallbacks, loadLots));
+        return report.toString();
+    }
+}
+
 // Main class of the program
 public class Main {
+    private static final int BATCH_COUNT = 8;// Batches circulating between the parser and the executor
+
     public static void main(String[] args) {
+        if (args.length > 2) {// Several input/output pairs: one depot each, all sharing one fleet
+            runDepots(args);
+            return;
+        }
         String inputFilePath = args[0];
         String outputFilePath = args[1];
-        FleetManager fleetManager = new FleetManager();
-        // Create a FleetManager to handle operations
-        try (BufferedReader reader = new BufferedReader(new FileReader(inputFilePath));
-             FileWriter writer = new FileWriter(outputFilePath)) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(" ");
-                String command = parts[0];
-                String result;
-                int capacity, limit, truckId, truckCapacity, loadAmount;
-                // Decide what to do based on the command
-                switch (command) {
-                    case "create_parking_lot":
-                        capacity = Integer.parseInt(parts[1]);
-                        limit = Integer.parseInt(parts[2]);
-                        fleetManager.createParkingLot(capacity, limit);
-                        break;
-                    case "delete_parking_lot":
-                        capacity = Integer.parseInt(parts[1]);
-                        fleetManager.deleteParkingLot(capacity);
-                        break;
-                    case "add_truck":
-                        truckId = Integer.parseInt(parts[1]);
-                        truckCapacity = Integer.parseInt(parts[2]);
-                        result = fleetManager.addTruck(truckId, truckCapacity);
-                        writer.write(result + "\n");
-                        break;
-                    case "ready":
-                        capacity = Integer.parseInt(parts[1]);
-                        result = fleetManager.readyTruck(capacity);
-                        writer.write(result + "\n");
-                        break;
-                    case "load":
-                        capacity = Integer.parseInt(parts[1]);
-                        loadAmount = Integer.parseInt(parts[2]);
-                        result = fleetManager.loadTrucks(capacity, loadAmount);
-                        writer.write(result + "\n");
-                        break;
-                    case "count":
-                        capacity = Integer.parseInt(parts[1]);
-                        result = fleetManager.countTrucks(capacity);
-                        writer.write(result + "\n");
-                        break;
-                    default:// If the command is not recognized, do nothing
-                        break;
+        // Parse, execute and write on separate threads when there are cores for them, -Dpipeline=true/false overrides
+        String pipelineProperty = System.getProperty("pipeline");
+        boolean pipelined = pipelineProperty != null ? Boolean.parseBoolean(pipelineProperty)
+                : Runtime.getRuntime().availableProcessors() >= 3;
+        // -Dstats=true prints latencies and counters to standard error at the end, and every -Dstats.interval ms if set
+        Long statsInterval = Long.getLong("stats.interval");
+        if (Stats.ENABLED && statsInterval != null) {
+            Stats.reportEvery(statsInterval);
+        }
+        // -Djournal=file logs every command that changes the fleet before running it, and replays the log at start
+        // -Djournal.group=N and -Djournal.millis=T set how often the log is forced to disk
+        String journalPath = System.getProperty("journal");
+        try (CommandReader reader = new CommandReader(inputFilePath);
+             ResultWriter writer = new ResultWriter(outputFilePath, pipelined);
+             CommandJournal journal = journalPath == null ? null : new CommandJournal(journalPath,
+                     Integer.getInteger("journal.group", 4096), Integer.getInteger("journal.millis", 10))) {
+            FleetManager fleetManager = new FleetManager(writer);
+            // Create a FleetManager to handle operations, it writes its results straight to the output
+            // -Drestore=file starts from a snapshot instead of an empty fleet, -Dsnapshot=file saves one at the end
+            String restorePath = System.getProperty("restore");
+            long sequence = 0;// Journaled commands contained in the fleet
+            if (restorePath != null) {
+                sequence = fleetManager.restoreSnapshot(restorePath);
+            }
+            if (journal != null) {// Bring the fleet up to date, the results of these commands were written by earlier runs
+                fleetManager.setOutput(ResultWriter.discarding());
+                sequence = journal.replay(fleetManager, sequence);
+                fleetManager.setOutput(writer);
+            }
+            if (pipelined) {
+                runPipelined(reader, fleetManager, journal);
+            } else {
+                runSequential(reader, fleetManager, journal);
+            }
+            String snapshotPath = System.getProperty("snapshot");
+            if (snapshotPath != null) {
+                if (journal != null) {
+                    sequence = journal.nextSequence();
+                }
+                fleetManager.saveSnapshot(snapshotPath, sequence);
+                if (journal != null) {// The snapshot holds every record now
+                    journal.reset(sequence);
                 }
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
+        if (Stats.ENABLED) {
+            System.err.print(Stats.report());
+        }
+    }
+    // Run every input/output pair on its own thread against one ConcurrentFleetManager
+    private static void runDepots(String[] args) {
+        ConcurrentFleetManager fleetManager = new ConcurrentFleetManager();
+        Thread[] depots = new Thread[args.length / 2];
+        for (int i = 0; i < depots.length; i++) {
+            String inputFilePath = args[2 * i];
+            String outputFilePath = args[2 * i + 1];
+            depots[i] = new Thread(() -> {
+                try (CommandReader reader = new CommandReader(inputFilePath);
+                     ResultWriter writer = new ResultWriter(outputFilePath)) {
+                    int command;
+                    while ((command = reader.next()) != CommandReader.END) {
+                        execute(fleetManager, writer, command, reader.getFirst(), reader.getSecond());
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }, "depot-" + i);
+            depots[i].start();
+        }
+        for (Thread depot : depots) {
+            try {
+                depot.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+    // Read and execute the commands one by one on this thread
+    private static void runSequential(CommandReader reader, FleetManager fleetManager, CommandJournal journal)
+            throws IOException {
+        int command;
+        while ((command = reader.next()) != CommandReader.END) {
+            if (journal != null && command != CommandReader.COUNT) {// Log it before it changes anything
+                journal.append(command, reader.getFirst(), reader.getSecond());
+            }
+            execute(fleetManager, command, reader.getFirst(), reader.getSecond());
+        }
+    }
+    // Parse on a separate thread and execute the batches it produces here, in input order
+    private static void runPipelined(CommandReader reader, FleetManager fleetManager, CommandJournal journal)
+            throws IOException {
+        SpscQueue<CommandBatch> parsedBatches = new SpscQueue<>(BATCH_COUNT);
+        SpscQueue<CommandBatch> freeBatches = new SpscQueue<>(BATCH_COUNT);
+        for (int i = 0; i < BATCH_COUNT; i++) {
+            freeBatches.put(new CommandBatch());
+        }
+        Thread parser = new Thread(() -> parseInBackground(reader, freeBatches, parsedBatches), "command-parser");
+        parser.setDaemon(true);
+        parser.start();
+        while (true) {
+            if (journal != null && parsedBatches.isEmpty()) {
+                journal.force();// The journal only checks its time limit on append, so force before waiting
+            }
+            CommandBatch batch = parsedBatches.take();
+            for (int i = 0; i < batch.size; i++) {
+                if (journal != null && batch.commands[i] != CommandReader.COUNT) {// Log it before it changes anything
+                    journal.append(batch.commands[i], batch.firsts[i], batch.seconds[i]);
+                }
+                execute(fleetManager, batch.commands[i], batch.firsts[i], batch.seconds[i]);
+            }
+            if (batch.error != null) {
+                throw batch.error;
+            }
+            if (batch.last) {
+                return;
+            }
+            freeBatches.put(batch);// Give the batch back to the parser to refill
+        }
+    }
+    // Body of the parser thread, fills free batches with commands until the input ends
+    private static void parseInBackground(CommandReader reader, SpscQueue<CommandBatch> freeBatches,
+                                          SpscQueue<CommandBatch> parsedBatches) {
+        while (true) {
+            CommandBatch batch = freeBatches.take();
+            batch.size = 0;
+            try {
+                int command = CommandReader.END;
+                while (batch.size < CommandBatch.CAPACITY && (command = reader.next()) != CommandReader.END) {
+                    batch.commands[batch.size] = command;
+                    batch.firsts[batch.size] = reader.getFirst();
+                    batch.seconds[batch.size] = reader.getSecond();
+                    batch.size++;
+                }
+                batch.last = command == CommandReader.END;
+            } catch (IOException e) {
+                batch.error = e;
+                batch.last = true;
+            }
+            parsedBatches.put(batch);
+            if (batch.last) {
+                return;
+            }
+        }
+    }
+    // Run a command, timing it when stats are on
+    static void execute(FleetManager fleetManager, int command, int first, int second) throws IOException {
+        if (Stats.ENABLED) {
+            long start = System.nanoTime();
+            apply(fleetManager, command, first, second);
+            Stats.recordCommand(command, System.nanoTime() - start);
+        } else {
+            apply(fleetManager, command, first, second);
+        }
+    }
+    // Decide what to do based on the command, unknown commands are skipped by the reader
+    private static void apply(FleetManager fleetManager, int command, int first, int second) throws IOException {
+        switch (command) {
+            case CommandReader.CREATE_PARKING_LOT:
+                fleetManager.createParkingLot(first, second);
+                break;
+            case CommandReader.DELETE_PARKING_LOT:
+                fleetManager.deleteParkingLot(first);
+                break;
+            case CommandReader.ADD_TRUCK:
+                fleetManager.addTruck(first, second);
+                break;
+            case CommandReader.READY:
+                fleetManager.readyTruck(first);
+                break;
+            case CommandReader.LOAD:
+                fleetManager.loadTrucks(first, second);
+                break;
+            case CommandReader.COUNT:
+                fleetManager.countTrucks(first);
+                break;
+            default:
+                break;
+        }
+    }
+    // Same as above for the shared fleet, the results go to this depot's output
+    private static void execute(ConcurrentFleetManager fleetManager, ResultWriter output, int command,
+                                int first, int second) throws IOException {
+        switch (command) {
+            case CommandReader.CREATE_PARKING_LOT:
+                fleetManager.createParkingLot(first, second);
+                break;
+            case CommandReader.DELETE_PARKING_LOT:
+                fleetManager.deleteParkingLot(first);
+                break;
+            case CommandReader.ADD_TRUCK:
+                fleetManager.addTruck(first, second, output);
+                break;
+            case CommandReader.READY:
+                fleetManager.readyTruck(first, output);
+                break;
+            case CommandReader.LOAD:
+                fleetManager.loadTrucks(first, second, output);
+                break;
+            case CommandReader.COUNT:
+                fleetManager.countTrucks(first, output);
+                break;
+            default:
+                break;
+        }
     }
 }
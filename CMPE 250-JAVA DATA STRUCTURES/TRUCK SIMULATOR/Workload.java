@@ -0,0 +1,325 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+// Generates reproducible command streams for the truck simulator and replays them through Main
+// Compile together with Main.java: javac Main.java Workload.java
+//   java Workload generate <file> [lines=N] [seed=S] [mix=create,delete,add,ready,load,count] [skew=uniform|zipf|clustered]
+//                                 [range=R] [zipf=exponent] [limit=L]
+//   java Workload replay <input> <output> [check]
+//   java Workload check <input> <output>
+// Everything is streamed, so files of 100M lines only need disk space. The check runs the input through
+// a plain TreeMap implementation of the commands and compares its output with Main's line by line
+public class Workload {
+    private static final String[] COMMAND_NAMES = {// Same order as the CommandReader codes
+            "create_parking_lot", "delete_parking_lot", "add_truck", "ready", "load", "count"};
+
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 2 && args[0].equals("generate")) {
+            generate(args);
+        } else if (args.length >= 3 && args[0].equals("replay")) {
+            replay(args[1], args[2]);
+            if (args.length > 3 && args[3].equals("check")) {
+                check(args[1], args[2]);
+            }
+        } else if (args.length >= 3 && args[0].equals("check")) {
+            check(args[1], args[2]);
+        } else {
+            System.err.println("usage: java Workload generate <file> [lines=N] [seed=S] [mix=a,b,c,d,e,f]"
+                    + " [skew=uniform|zipf|clustered] [range=R] [zipf=exponent] [limit=L]");
+            System.err.println("       java Workload replay <input> <output> [check]");
+            System.err.println("       java Workload check <input> <output>");
+        }
+    }
+
+    // Write the requested number of command lines, the same options and seed always give the same file
+    private static void generate(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 2; i < args.length; i++) {
+            int equals = args[i].indexOf('=');
+            if (equals < 0) {
+                throw new RuntimeException("option without value: " + args[i]);
+            }
+            options.put(args[i].substring(0, equals), args[i].substring(equals + 1));
+        }
+        long lines = Long.parseLong(options.getOrDefault("lines", "1000000"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+        String[] mixParts = options.getOrDefault("mix", "10,2,30,25,23,10").split(",");
+        if (mixParts.length != COMMAND_NAMES.length) {
+            throw new RuntimeException("mix needs one share per command");
+        }
+        int[] shares = new int[mixParts.length];
+        int totalShare = 0;
+        for (int i = 0; i < shares.length; i++) {
+            shares[i] = Integer.parseInt(mixParts[i]);
+            totalShare += shares[i];
+        }
+        if (totalShare <= 0) {
+            throw new RuntimeException("mix has no commands");
+        }
+        CapacitySource capacities = new CapacitySource(options.getOrDefault("skew", "uniform"),
+                Integer.parseInt(options.getOrDefault("range", "100000")),
+                Double.parseDouble(options.getOrDefault("zipf", "1.0")), new Random(seed));
+        int truckLimit = Integer.parseInt(options.getOrDefault("limit", "50"));
+        Random random = new Random(seed + 1);
+        int truckId = 0;
+        long start = System.nanoTime();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(args[1]), 1 << 16)) {
+            StringBuilder line = new StringBuilder(64);
+            for (long i = 0; i < lines; i++) {
+                int pick = random.nextInt(totalShare);
+                int command = 0;
+                while (pick >= shares[command]) {
+                    pick -= shares[command++];
+                }
+                line.setLength(0);
+                line.append(COMMAND_NAMES[command]).append(' ');
+                switch (command) {
+                    case CommandReader.CREATE_PARKING_LOT:
+                        line.append(capacities.next()).append(' ').append(1 + random.nextInt(truckLimit));
+                        break;
+                    case CommandReader.ADD_TRUCK:
+                        line.append(++truckId).append(' ').append(capacities.next());
+                        break;
+                    case CommandReader.LOAD:// Loads of up to a few trucks' worth
+                        line.append(capacities.next()).append(' ').append(1 + random.nextInt(capacities.loadBound()));
+                        break;
+                    default:
+                        line.append(capacities.next());
+                        break;
+                }
+                line.append('\n');
+                for (int j = 0; j < line.length(); j++) {
+                    out.write(line.charAt(j));
+                }
+            }
+        }
+        System.out.printf("generated %d lines in %.1f s%n", lines, (System.nanoTime() - start) / 1e9);
+    }
+
+    // Capacities spread uniformly over [0, range), skewed towards small ones with a Zipf-like law,
+    // or gathered around a few centers
+    private static class CapacitySource {
+        private static final int CLUSTERS = 16;
+        private final String skew;
+        private final int range;
+        private final double exponent;
+        private final Random random;
+        private final int[] centers = new int[CLUSTERS];
+
+        CapacitySource(String skew, int range, double exponent, Random random) {
+            if (range <= 0) {
+                throw new RuntimeException("range must be positive");
+            }
+            if (!skew.equals("uniform") && !skew.equals("zipf") && !skew.equals("clustered")) {
+                throw new RuntimeException("unknown skew: " + skew);
+            }
+            this.skew = skew;
+            this.range = range;
+            this.exponent = exponent;
+            this.random = random;
+            for (int i = 0; i < CLUSTERS; i++) {
+                centers[i] = random.nextInt(range);
+            }
+        }
+
+        // Upper bound for load amounts, about four capacities' worth, kept within an int for large ranges
+        int loadBound() {
+            return (int) Math.min(Integer.MAX_VALUE, range * 4L);
+        }
+
+        int next() {
+            switch (skew) {
+                case "zipf":// Inverse of the continuous power law on [1, range + 1), rank 1 is the most common
+                    double u = random.nextDouble();
+                    double rank;
+                    if (Math.abs(exponent - 1.0) < 1e-9) {
+                        rank = Math.pow(range + 1.0, u);
+                    } else {
+                        double oneMinus = 1.0 - exponent;
+                        rank = Math.pow((Math.pow(range + 1.0, oneMinus) - 1) * u + 1, 1.0 / oneMinus);
+                    }
+                    return Math.min(range - 1, (int) rank - 1);
+                case "clustered":// Within about a thousandth of the range of one of the centers
+                    int spread = Math.max(1, range / 1000);
+                    long value = centers[random.nextInt(CLUSTERS)] + (long) (random.nextGaussian() * spread);
+                    return (int) Math.max(0, Math.min(range - 1, value));
+                default:
+                    return random.nextInt(range);
+            }
+        }
+    }
+
+    // Run the input through Main in this JVM and report the throughput
+    private static void replay(String input, String output) throws IOException {
+        long lines = countLines(input);
+        long bytes = Files.size(Paths.get(input));
+        long start = System.nanoTime();
+        Main.main(new String[]{input, output});
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("replayed %d lines in %.2f s: %.0f commands/s, %.1f MB/s%n",
+                lines, seconds, lines / seconds, bytes / seconds / 1e6);
+    }
+
+    // Run the input through the reference implementation and compare its output with the given one
+    private static void check(String input, String output) throws IOException {
+        String expected = output + ".reference";
+        long start = System.nanoTime();
+        try (BufferedReader reader = new BufferedReader(new FileReader(input), 1 << 16);
+             BufferedWriter writer = new BufferedWriter(new FileWriter(expected), 1 << 16)) {
+            ReferenceFleet fleet = new ReferenceFleet(writer);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                fleet.execute(line);
+            }
+        }
+        System.out.printf("reference ran in %.2f s%n", (System.nanoTime() - start) / 1e9);
+        try (BufferedReader actualLines = new BufferedReader(new FileReader(output), 1 << 16);
+             BufferedReader expectedLines = new BufferedReader(new FileReader(expected), 1 << 16)) {
+            long lineNumber = 0;
+            while (true) {
+                String actual = actualLines.readLine();
+                String wanted = expectedLines.readLine();
+                lineNumber++;
+                if (actual == null && wanted == null) {
+                    System.out.printf("check passed: %d output lines match%n", lineNumber - 1);
+                    Files.delete(Paths.get(expected));
+                    return;
+                }
+                if (actual == null || !actual.equals(wanted)) {
+                    System.out.printf("check FAILED at output line %d%n  expected: %s%n  actual:   %s%n"
+                            + "  (reference output kept in %s)%n", lineNumber, wanted, actual, expected);
+                    return;
+                }
+            }
+        }
+    }
+
+    private static long countLines(String path) throws IOException {
+        long lines = 0;
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(Paths.get(path))) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\n') {
+                        lines++;
+                    }
+                }
+            }
+        }
+        return lines;
+    }
+
+    // The commands written as plainly as possible on a TreeMap, without any of the tree flags or batching of Main
+    // Searches that fall back to other lots walk them one by one, so this is only meant for checking
+    private static class ReferenceFleet {
+        private final TreeMap<Integer, ReferenceLot> lots = new TreeMap<>();
+        private final BufferedWriter out;
+
+        ReferenceFleet(BufferedWriter out) {
+            this.out = out;
+        }
+
+        void execute(String line) throws IOException {
+            String[] parts = line.trim().split("\\s+");
+            switch (parts[0]) {
+                case "create_parking_lot":
+                    lots.putIfAbsent(Integer.parseInt(parts[1]),
+                            new ReferenceLot(Integer.parseInt(parts[1]), Integer.parseInt(parts[2])));
+                    break;
+                case "delete_parking_lot":
+                    lots.remove(Integer.parseInt(parts[1]));
+                    break;
+                case "add_truck":
+                    addTruck(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+                    break;
+                case "ready":
+                    ready(Integer.parseInt(parts[1]));
+                    break;
+                case "load":
+                    load(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+                    break;
+                case "count":
+                    int count = 0;
+                    for (ReferenceLot lot : lots.tailMap(Integer.parseInt(parts[1]), false).values()) {
+                        count += lot.waiting.size() + lot.ready.size();
+                    }
+                    out.write(count + "\n");
+                    break;
+                default:// Unknown commands and blank lines are skipped, like CommandReader does
+                    break;
+            }
+        }
+
+        // The lot with this capacity or the next smaller one with room
+        private void addTruck(int id, int capacity) throws IOException {
+            for (ReferenceLot lot : lots.headMap(capacity, true).descendingMap().values()) {
+                if (lot.waiting.size() + lot.ready.size() < lot.limit) {
+                    lot.waiting.addLast(new int[]{id, capacity});
+                    out.write(lot.capacity + "\n");
+                    return;
+                }
+            }
+            out.write("-1\n");
+        }
+
+        // The lot with this capacity or the next larger one with a waiting truck
+        private void ready(int capacity) throws IOException {
+            for (ReferenceLot lot : lots.tailMap(capacity, true).values()) {
+                if (!lot.waiting.isEmpty()) {
+                    int[] truck = lot.waiting.pollFirst();
+                    lot.ready.addLast(truck);
+                    out.write(truck[0] + " " + lot.capacity + "\n");
+                    return;
+                }
+            }
+            out.write("-1\n");
+        }
+
+        // Ready trucks from this lot upwards, each takes as much of what is left as it can carry
+        private void load(int capacity, int amount) throws IOException {
+            StringBuilder loaded = new StringBuilder();
+            int remaining = amount;
+            for (ReferenceLot lot : lots.tailMap(capacity, true).values()) {
+                while (remaining > 0 && !lot.ready.isEmpty()) {
+                    int[] truck = lot.ready.pollFirst();
+                    remaining -= Math.min(truck[1], remaining);
+                    if (loaded.length() > 0) {
+                        loaded.append(" - ");
+                    }
+                    loaded.append(truck[0]).append(' ').append(truck[1] != 0 ? lot.capacity : -1);
+                }
+                if (remaining <= 0) {
+                    break;
+                }
+            }
+            out.write(loaded.length() > 0 ? loaded + "\n" : "-1\n");
+        }
+    }
+
+    private static class ReferenceLot {
+        final int capacity;
+        final int limit;
+        final ArrayDeque<int[]> waiting = new ArrayDeque<>();// {id, capacity} pairs
+        final ArrayDeque<int[]> ready = new ArrayDeque<>();
+
+        ReferenceLot(int capacity, int limit) {
+            this.capacity = capacity;
+            this.limit = limit;
+        }
+    }
+}